@@ -41,8 +41,10 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static android.support.test.espresso.Espresso.onView;
 import static android.support.test.espresso.Espresso.registerIdlingResources;
@@ -250,6 +252,76 @@ public class CameraViewTest {
         }
     }
 
+    @Test
+    public void testFocusAt_highSpeedVideoMode() {
+        onView(withId(R.id.camera))
+                .perform(new AnythingAction("start high speed video mode") {
+                    @Override
+                    public void perform(UiController uiController, View view) {
+                        CameraView cameraView = (CameraView) view;
+                        cameraView.stop();
+                        cameraView.setVideoFrameRate(120);
+                        cameraView.startHighSpeedVideoMode();
+                    }
+                });
+        onView(withId(R.id.camera))
+                .perform(new AnythingAction("focus") {
+                    @Override
+                    public void perform(UiController uiController, View view) {
+                        // Must be ignored rather than sent to the constrained high speed session
+                        ((CameraView) view).focusAt(view.getWidth() / 4f, view.getHeight() / 4f);
+                    }
+                })
+                .perform(waitFor(1000))
+                .check(showingPreview());
+    }
+
+    @Test
+    public void testStopWhileRecording() throws Exception {
+        final AtomicInteger frames = new AtomicInteger();
+        final File videoFile = new File(rule.getActivity().getCacheDir(), "stop_while_recording.mp4");
+        onView(withId(R.id.camera))
+                .perform(new AnythingAction("start video mode") {
+                    @Override
+                    public void perform(UiController uiController, View view) {
+                        CameraView cameraView = (CameraView) view;
+                        cameraView.stop();
+                        cameraView.setEncodedFrameSink(new EncodedFrameSink() {
+                            @Override
+                            public void onEncodedFrame(EncodedFrame frame) {
+                                frames.incrementAndGet();
+                                frame.release();
+                            }
+                        });
+                        cameraView.startVideoMode();
+                    }
+                });
+        final int[] framesAfterStop = new int[2];
+        onView(withId(R.id.camera))
+                .perform(new AnythingAction("record") {
+                    @Override
+                    public void perform(UiController uiController, View view) {
+                        ((CameraView) view).startRecordingVideo(videoFile.getPath());
+                    }
+                })
+                .perform(waitFor(1000))
+                .perform(new AnythingAction("stop while recording") {
+                    @Override
+                    public void perform(UiController uiController, View view) {
+                        // Closes the camera under the encoder, which must not crash
+                        ((CameraView) view).stop();
+                        framesAfterStop[0] = frames.get();
+                        SystemClock.sleep(100);
+                        framesAfterStop[1] = frames.get();
+                    }
+                });
+        assertThat("Didn't receive encoded frames.", framesAfterStop[0] > 0, is(true));
+        assertThat("Encoder kept running after stop.", framesAfterStop[1],
+                   is(framesAfterStop[0]));
+        //noinspection ResultOfMethodCallIgnored
+        videoFile.delete();
+    }
+
     private static ViewAction waitFor(final long ms) {
         return new AnythingAction("wait") {
             @Override
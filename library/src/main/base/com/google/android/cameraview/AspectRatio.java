@@ -20,15 +20,26 @@ import android.content.res.Configuration;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
-import android.support.v4.util.SparseArrayCompat;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Immutable class for describing proportional relationship between width and height.
  */
 public class AspectRatio implements Comparable<AspectRatio>, Parcelable {
 
-    private final static SparseArrayCompat<SparseArrayCompat<AspectRatio>> sCache
-            = new SparseArrayCompat<>(16);
+    /** Must be a power of two. */
+    private static final int CACHE_CAPACITY = 256;
+
+    private static final int MAX_PROBES = 8;
+
+    /**
+     * Open addressing table of interned instances, read without locking and filled with CAS.
+     * Entries are never removed; once a key's probe sequence is full, new instances are
+     * returned uncached, which bounds the table whatever sizes are asked for.
+     */
+    private final static AtomicReferenceArray<AspectRatio> sCache
+            = new AtomicReferenceArray<>(CACHE_CAPACITY);
 
     private final int mX;
     private final int mY;
@@ -45,21 +56,32 @@ public class AspectRatio implements Comparable<AspectRatio>, Parcelable {
         int gcd = gcd(x, y);
         x /= gcd;
         y /= gcd;
-        SparseArrayCompat<AspectRatio> arrayX = sCache.get(x);
-        if (arrayX == null) {
-            AspectRatio ratio = new AspectRatio(x, y);
-            arrayX = new SparseArrayCompat<>();
-            arrayX.put(y, ratio);
-            sCache.put(x, arrayX);
-            return ratio;
-        } else {
-            AspectRatio ratio = arrayX.get(y);
+        long key = ((long) x << 32) | (y & 0xffffffffL);
+        int slot = hash(key);
+        AspectRatio created = null;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            AspectRatio ratio = sCache.get(slot);
             if (ratio == null) {
-                ratio = new AspectRatio(x, y);
-                arrayX.put(y, ratio);
+                if (created == null) {
+                    created = new AspectRatio(x, y);
+                }
+                if (sCache.compareAndSet(slot, null, created)) {
+                    return created;
+                }
+                // Lost the race for this slot; it may have been taken by the same ratio
+                ratio = sCache.get(slot);
+            }
+            if (ratio.mX == x && ratio.mY == y) {
+                return ratio;
             }
-            return ratio;
+            slot = (slot + 1) & (CACHE_CAPACITY - 1);
         }
+        return created != null ? created : new AspectRatio(x, y);
+    }
+
+    private static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (CACHE_CAPACITY - 1);
     }
 
     /**
@@ -103,6 +125,15 @@ public class AspectRatio implements Comparable<AspectRatio>, Parcelable {
         return mX == x && mY == y;
     }
 
+    /**
+     * @param tolerance The largest difference to this ratio, relative to its value.
+     * @return {@code true} if the ratio of {@code size} is within {@code tolerance} of this one.
+     */
+    public boolean matches(Size size, float tolerance) {
+        float value = toFloat();
+        return Math.abs((float) size.getWidth() / size.getHeight() - value) <= value * tolerance;
+    }
+
     public boolean matchesOrientation(int orientation) {
         switch (orientation) {
             case Configuration.ORIENTATION_LANDSCAPE:
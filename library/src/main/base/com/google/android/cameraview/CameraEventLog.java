@@ -0,0 +1,158 @@
+package com.google.android.cameraview;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+
+/**
+ * A flight recorder of the camera's state transitions, to find out after the fact why the camera
+ * hung or failed.
+ * <p>
+ * The latest events are kept in a fixed-size ring of primitive values, so logging an event is
+ * cheap enough to always stay on. Formatting only happens when the log is dumped.
+ */
+public class CameraEventLog {
+
+    static final int OPEN_REQUESTED = 0;
+    static final int OPENED = 1;
+    static final int CLOSED = 2;
+    static final int DISCONNECTED = 3;
+    /** The camera device failed, with the error code as first argument. */
+    static final int ERROR = 4;
+    static final int SESSION_REQUESTED = 5;
+    static final int SESSION_CONFIGURED = 6;
+    static final int SESSION_CONFIGURE_FAILED = 7;
+    static final int SESSION_CLOSED = 8;
+    /** The repeating request was submitted, with the kind of its callback as first argument. */
+    static final int REPEATING_REQUEST = 9;
+    /** A single request was submitted, with its kind as first argument. */
+    static final int CAPTURE_REQUEST = 10;
+    /** A still capture phase finished, with the phase and whether it timed out as arguments. */
+    static final int CAPTURE_PHASE = 11;
+    /** The preview surface was created or resized, with its width and height as arguments. */
+    static final int SURFACE_SIZE = 12;
+    static final int SURFACE_DESTROYED = 13;
+
+    // Kinds of callbacks of REPEATING_REQUEST
+    static final int CALLBACK_NONE = 0;
+    static final int CALLBACK_PICTURE = 1;
+    static final int CALLBACK_PREVIEW = 2;
+
+    // Kinds of requests of CAPTURE_REQUEST
+    static final int REQUEST_LOCK_FOCUS = 0;
+    static final int REQUEST_PRECAPTURE = 1;
+    static final int REQUEST_STILL = 2;
+    static final int REQUEST_UNLOCK_FOCUS = 3;
+    static final int REQUEST_VIDEO_SNAPSHOT = 4;
+    static final int REQUEST_FOCUS_AT = 5;
+
+    private static final String[] NAMES = {
+            "open requested", "opened", "closed", "disconnected", "error", "session requested",
+            "session configured", "session configure failed", "session closed",
+            "repeating request", "capture request", "capture phase", "surface size",
+            "surface destroyed",
+    };
+
+    private final long[] mTimestampsNs;
+
+    private final int[] mTypes;
+
+    /** The two arguments of each event, packed in one long. */
+    private final long[] mArguments;
+
+    /** The number of events logged so far. */
+    private long mCount;
+
+    /**
+     * @param capacity The number of latest events kept.
+     */
+    CameraEventLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mTimestampsNs = new long[capacity];
+        mTypes = new int[capacity];
+        mArguments = new long[capacity];
+    }
+
+    /**
+     * Logs an event, overwriting the oldest one when the log is full.
+     *
+     * @param type        One of the event constants.
+     * @param timestampNs A monotonic timestamp, e.g. {@code SystemClock.elapsedRealtimeNanos()}.
+     */
+    synchronized void log(int type, long timestampNs, int argument1, int argument2) {
+        int slot = (int) (mCount % mTypes.length);
+        mTimestampsNs[slot] = timestampNs;
+        mTypes[slot] = type;
+        mArguments[slot] = ((long) argument1 << 32) | (argument2 & 0xFFFFFFFFL);
+        mCount++;
+    }
+
+    /**
+     * @return The number of events kept, at most the capacity.
+     */
+    public synchronized int size() {
+        return (int) Math.min(mCount, mTypes.length);
+    }
+
+    /**
+     * Writes the events kept, oldest first, one per line with its timestamp in milliseconds.
+     */
+    public void dump(PrintWriter writer) {
+        // Copy first so formatting doesn't hold back the camera threads
+        long[] timestampsNs;
+        int[] types;
+        long[] arguments;
+        long count;
+        synchronized (this) {
+            timestampsNs = mTimestampsNs.clone();
+            types = mTypes.clone();
+            arguments = mArguments.clone();
+            count = mCount;
+        }
+        int capacity = types.length;
+        long first = Math.max(0, count - capacity);
+        if (first > 0) {
+            writer.println(first + " earlier events dropped");
+        }
+        for (long i = first; i < count; i++) {
+            int slot = (int) (i % capacity);
+            int type = types[slot];
+            String name = type >= 0 && type < NAMES.length ? NAMES[type] : "event " + type;
+            writer.println(String.format(Locale.US, "%.3f %s %d %d", timestampsNs[slot] / 1e6,
+                                         name, (int) (arguments[slot] >> 32),
+                                         (int) arguments[slot]));
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the events kept to {@code file}, replacing its content.
+     */
+    public void dump(File file) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            dump(writer);
+            if (writer.checkError()) {
+                throw new IOException("Failed to write the camera event log to " + file);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return The events kept, as written by {@link #dump(PrintWriter)}.
+     */
+    @Override
+    public String toString() {
+        StringWriter writer = new StringWriter();
+        dump(new PrintWriter(writer));
+        return writer.toString();
+    }
+
+}
@@ -0,0 +1,291 @@
+package com.google.android.cameraview;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Timestamps of the camera pipeline's milestones and the latencies between them, such as how
+ * long the camera takes to open or a picture takes to be delivered.
+ * <p>
+ * Each latency is aggregated in a fixed-size histogram, cheap enough to stay on in production.
+ * Read them with {@link #getSnapshot()}, or follow each measurement with a {@link Listener}.
+ * <p>
+ * A phase that gives up waiting, e.g. focus that doesn't lock in time, still ends its latencies
+ * with the time waited, so they show what the user went through; such measurements are also
+ * counted by {@link Snapshot#getTimeoutCount(int)}.
+ */
+public class CameraMetrics {
+
+    /** {@code openCamera} was called. */
+    public static final int EVENT_OPEN_REQUESTED = 0;
+    /** The camera device was opened. */
+    public static final int EVENT_OPENED = 1;
+    /** A capture session was requested. */
+    public static final int EVENT_SESSION_REQUESTED = 2;
+    /** The capture session was configured. */
+    public static final int EVENT_SESSION_CONFIGURED = 3;
+    /** The first preview frame since the camera was opened was displayed. */
+    public static final int EVENT_FIRST_FRAME = 4;
+    /** A picture was requested. */
+    public static final int EVENT_PICTURE_REQUESTED = 5;
+    /** Auto-focus locked for a picture, or timed out. */
+    public static final int EVENT_FOCUS_LOCKED = 6;
+    /** The precapture sequence of a picture finished, or timed out. */
+    public static final int EVENT_PRECAPTURE_DONE = 7;
+    /** The still capture request completed. */
+    public static final int EVENT_CAPTURE_COMPLETED = 8;
+    /** The JPEG data of a picture was delivered to callbacks. */
+    public static final int EVENT_JPEG_DELIVERED = 9;
+    /** Video recording was requested. */
+    public static final int EVENT_RECORD_START_REQUESTED = 10;
+    /** Video recording started. */
+    public static final int EVENT_RECORD_STARTED = 11;
+    /** Stopping video recording was requested. */
+    public static final int EVENT_RECORD_STOP_REQUESTED = 12;
+    /** Video recording stopped. */
+    public static final int EVENT_RECORD_STOPPED = 13;
+
+    static final int EVENT_COUNT = 14;
+
+    /** From {@link #EVENT_OPEN_REQUESTED} to {@link #EVENT_OPENED}. */
+    public static final int METRIC_OPEN = 0;
+    /** From {@link #EVENT_SESSION_REQUESTED} to {@link #EVENT_SESSION_CONFIGURED}. */
+    public static final int METRIC_SESSION = 1;
+    /** From {@link #EVENT_OPEN_REQUESTED} to {@link #EVENT_FIRST_FRAME}. */
+    public static final int METRIC_FIRST_FRAME = 2;
+    /** From {@link #EVENT_PICTURE_REQUESTED} to {@link #EVENT_FOCUS_LOCKED}. */
+    public static final int METRIC_FOCUS_LOCK = 3;
+    /** From {@link #EVENT_FOCUS_LOCKED} to {@link #EVENT_PRECAPTURE_DONE}. */
+    public static final int METRIC_PRECAPTURE = 4;
+    /** From {@link #EVENT_PICTURE_REQUESTED} to {@link #EVENT_CAPTURE_COMPLETED}. */
+    public static final int METRIC_SHUTTER = 5;
+    /** From {@link #EVENT_CAPTURE_COMPLETED} to {@link #EVENT_JPEG_DELIVERED}. */
+    public static final int METRIC_JPEG = 6;
+    /** From {@link #EVENT_PICTURE_REQUESTED} to {@link #EVENT_JPEG_DELIVERED}. */
+    public static final int METRIC_PICTURE = 7;
+    /** From {@link #EVENT_RECORD_START_REQUESTED} to {@link #EVENT_RECORD_STARTED}. */
+    public static final int METRIC_RECORD_START = 8;
+    /** From {@link #EVENT_RECORD_STOP_REQUESTED} to {@link #EVENT_RECORD_STOPPED}. */
+    public static final int METRIC_RECORD_STOP = 9;
+
+    static final int METRIC_COUNT = 10;
+
+    private static final int[] METRIC_STARTS = {
+            EVENT_OPEN_REQUESTED,
+            EVENT_SESSION_REQUESTED,
+            EVENT_OPEN_REQUESTED,
+            EVENT_PICTURE_REQUESTED,
+            EVENT_FOCUS_LOCKED,
+            EVENT_PICTURE_REQUESTED,
+            EVENT_CAPTURE_COMPLETED,
+            EVENT_PICTURE_REQUESTED,
+            EVENT_RECORD_START_REQUESTED,
+            EVENT_RECORD_STOP_REQUESTED,
+    };
+
+    private static final int[] METRIC_ENDS = {
+            EVENT_OPENED,
+            EVENT_SESSION_CONFIGURED,
+            EVENT_FIRST_FRAME,
+            EVENT_FOCUS_LOCKED,
+            EVENT_PRECAPTURE_DONE,
+            EVENT_CAPTURE_COMPLETED,
+            EVENT_JPEG_DELIVERED,
+            EVENT_JPEG_DELIVERED,
+            EVENT_RECORD_STARTED,
+            EVENT_RECORD_STOPPED,
+    };
+
+    /**
+     * Follows the latencies as they are measured.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the thread that reached the end of the measurement, which may be a camera
+         * thread; it must return quickly.
+         *
+         * @param metric    One of the {@code METRIC_} constants.
+         * @param latencyUs The latency in microseconds.
+         */
+        void onLatency(int metric, long latencyUs);
+
+    }
+
+    private final long[] mTimestampsNs = new long[EVENT_COUNT];
+
+    private final long[] mStartsNs = new long[METRIC_COUNT];
+
+    /** Whether each metric has started and awaits its end event. */
+    private final boolean[] mPending = new boolean[METRIC_COUNT];
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[METRIC_COUNT];
+
+    private final long[] mTimeoutCounts = new long[METRIC_COUNT];
+
+    @Nullable
+    private Listener mListener;
+
+    CameraMetrics() {
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public synchronized void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Records that {@code event} happened, which starts or ends some of the metrics. A metric
+     * ends only once per start, so e.g. a repeated end event isn't measured twice.
+     *
+     * @param timestampNs A monotonic timestamp, e.g. {@code SystemClock.elapsedRealtimeNanos()}.
+     */
+    void mark(int event, long timestampNs) {
+        mark(event, timestampNs, false);
+    }
+
+    /**
+     * Same as {@link #mark(int, long)}, for an event that may have been reached by giving up
+     * waiting.
+     *
+     * @param timedOut Whether the metrics ended by {@code event} timed out.
+     */
+    synchronized void mark(int event, long timestampNs, boolean timedOut) {
+        mTimestampsNs[event] = timestampNs;
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            if (METRIC_ENDS[metric] == event && mPending[metric]) {
+                mPending[metric] = false;
+                long latencyUs = (timestampNs - mStartsNs[metric]) / 1000;
+                mHistograms[metric].record(latencyUs);
+                if (timedOut) {
+                    mTimeoutCounts[metric]++;
+                }
+                if (mListener != null) {
+                    mListener.onLatency(metric, latencyUs);
+                }
+            }
+            // An event can end a metric and start another, e.g. the capture completing
+            if (METRIC_STARTS[metric] == event) {
+                mPending[metric] = true;
+                mStartsNs[metric] = timestampNs;
+            }
+        }
+    }
+
+    /**
+     * @return A copy of the current timestamps and latencies.
+     */
+    public synchronized Snapshot getSnapshot() {
+        Snapshot snapshot = new Snapshot();
+        System.arraycopy(mTimestampsNs, 0, snapshot.mTimestampsNs, 0, EVENT_COUNT);
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            mHistograms[i].copyTo(snapshot.mHistograms[i]);
+        }
+        System.arraycopy(mTimeoutCounts, 0, snapshot.mTimeoutCounts, 0, METRIC_COUNT);
+        return snapshot;
+    }
+
+    /**
+     * Clears all the timestamps and latencies.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            mTimestampsNs[i] = 0;
+        }
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            mPending[i] = false;
+            mHistograms[i].reset();
+            mTimeoutCounts[i] = 0;
+        }
+    }
+
+    /**
+     * The timestamps and latencies of a {@link CameraMetrics} at one point in time.
+     */
+    public static final class Snapshot {
+
+        private static final String[] METRIC_NAMES = {
+                "open", "session", "first frame", "focus lock", "precapture", "shutter", "jpeg",
+                "picture", "record start", "record stop",
+        };
+
+        private final long[] mTimestampsNs = new long[EVENT_COUNT];
+
+        private final LatencyHistogram[] mHistograms = new LatencyHistogram[METRIC_COUNT];
+
+        private final long[] mTimeoutCounts = new long[METRIC_COUNT];
+
+        Snapshot() {
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                mHistograms[i] = new LatencyHistogram();
+            }
+        }
+
+        /**
+         * @param event One of the {@code EVENT_} constants.
+         * @return When the event last happened, or 0 if it didn't.
+         */
+        public long getTimestampNs(int event) {
+            return mTimestampsNs[event];
+        }
+
+        /**
+         * @param metric One of the {@code METRIC_} constants.
+         * @return How many times the metric was measured.
+         */
+        public long getCount(int metric) {
+            return mHistograms[metric].getCount();
+        }
+
+        /**
+         * @param metric One of the {@code METRIC_} constants.
+         * @return How many of the measurements of the metric ended by timing out.
+         */
+        public long getTimeoutCount(int metric) {
+            return mTimeoutCounts[metric];
+        }
+
+        /**
+         * @param metric     One of the {@code METRIC_} constants.
+         * @param percentile The percentile, from 0 to 100, e.g. 50 for the median.
+         * @return The latency in microseconds, within 12.5%, or 0 if it wasn't measured.
+         */
+        public long getPercentileUs(int metric, double percentile) {
+            return mHistograms[metric].getPercentile(percentile);
+        }
+
+        public long getMeanUs(int metric) {
+            return mHistograms[metric].getMean();
+        }
+
+        public long getMaxUs(int metric) {
+            return mHistograms[metric].getMax();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < METRIC_COUNT; i++) {
+                LatencyHistogram histogram = mHistograms[i];
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                if (builder.length() > 0) {
+                    builder.append('\n');
+                }
+                builder.append(METRIC_NAMES[i]).append(": n=").append(histogram.getCount())
+                        .append(" p50=").append(histogram.getPercentile(50) / 1000)
+                        .append("ms p95=").append(histogram.getPercentile(95) / 1000)
+                        .append("ms p99=").append(histogram.getPercentile(99) / 1000)
+                        .append("ms max=").append(histogram.getMax() / 1000).append("ms");
+                if (mTimeoutCounts[i] > 0) {
+                    builder.append(" timeouts=").append(mTimeoutCounts[i]);
+                }
+            }
+            return builder.toString();
+        }
+
+    }
+
+}
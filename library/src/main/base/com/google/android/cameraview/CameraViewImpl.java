@@ -17,8 +17,11 @@
 package com.google.android.cameraview;
 
 import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.util.Range;
 import android.view.TextureView;
 
+import java.util.List;
 import java.util.Set;
 
 abstract class CameraViewImpl {
@@ -35,6 +38,8 @@ abstract class CameraViewImpl {
 
     abstract void startVideoMode();
 
+    abstract void startHighSpeedVideoMode();
+
     abstract void stop();
 
     abstract boolean isCameraOpened();
@@ -47,10 +52,22 @@ abstract class CameraViewImpl {
 
     abstract int getVideoEncodingBitRate();
 
+    abstract void setVideoBitRateStrategy(int strategy);
+
+    abstract int getVideoBitRateStrategy();
+
+    abstract void setVideoBitsPerPixel(float bitsPerPixel);
+
+    abstract void setVideoBytesPerMinute(long bytesPerMinute);
+
+    abstract void setVideoEncodingBitRateScale(float scale);
+
     abstract void setVideoFrameRate(int videoFrameRate);
 
     abstract int getVideoFrameRate();
 
+    abstract Range<Integer> getAeTargetFpsRange();
+
     abstract void setMinVideoWidth(int minVideoWidth);
 
     abstract int getMinVideoWidth();
@@ -59,6 +76,22 @@ abstract class CameraViewImpl {
 
     abstract int getMinVideoHeight();
 
+    abstract void setPreviewSizeSelector(SizeSelector selector);
+
+    abstract void setVideoSizeSelector(SizeSelector selector);
+
+    abstract void setPictureSizeSelector(SizeSelector selector);
+
+    abstract void setAspectRatioTolerance(float tolerance);
+
+    abstract long getImageReaderMemoryBytes();
+
+    abstract int getSizeDecisionHitCount();
+
+    abstract int getSizeDecisionMissCount();
+
+    abstract float getAspectRatioTolerance();
+
     abstract Set<AspectRatio> getSupportedAspectRatios();
 
     abstract void setAutoFocus(boolean autoFocus);
@@ -69,8 +102,30 @@ abstract class CameraViewImpl {
 
     abstract int getFlash();
 
+    abstract void setCapturePolicy(int capturePolicy);
+
+    abstract int getCapturePolicy();
+
     abstract void takePicture();
 
+    abstract void focusAt(float x, float y);
+
+    abstract void setFaceDetection(boolean faceDetection);
+
+    abstract boolean getFaceDetection();
+
+    abstract void setFrameMetadataEnabled(boolean enabled);
+
+    abstract boolean isFrameMetadataEnabled();
+
+    abstract FrameMetadataRing getFrameMetadata();
+
+    abstract CameraMetrics getMetrics();
+
+    abstract FramePacing getFramePacing();
+
+    abstract CameraEventLog getEventLog();
+
     abstract void setDisplayOrientation(int displayOrientation);
 
     abstract void startRecordingVideo(String videoFilePath);
@@ -79,6 +134,14 @@ abstract class CameraViewImpl {
 
     abstract boolean isRecordingVideo();
 
+    abstract boolean pauseRecordingVideo();
+
+    abstract void resumeRecordingVideo();
+
+    abstract boolean isRecordingVideoPaused();
+
+    abstract void setEncodedFrameSink(EncodedFrameSink sink);
+
     interface Callback {
 
         void onCameraOpened();
@@ -89,6 +152,10 @@ abstract class CameraViewImpl {
 
         void onTransformUpdated(Matrix matrix);
 
+        void onFocusFinished(boolean focused, long durationMs);
+
+        void onFacesDetected(List<RectF> faces);
+
     }
 
 }
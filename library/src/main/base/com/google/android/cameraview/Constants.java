@@ -25,4 +25,12 @@ interface Constants {
     int FLASH_TORCH = 2;
     int FLASH_AUTO = 3;
     int FLASH_RED_EYE = 4;
+
+    int VIDEO_BIT_RATE_FIXED = 0;
+    int VIDEO_BIT_RATE_CAMCORDER_PROFILE = 1;
+    int VIDEO_BIT_RATE_BITS_PER_PIXEL = 2;
+    int VIDEO_BIT_RATE_BYTES_PER_MINUTE = 3;
+
+    int CAPTURE_POLICY_QUALITY = 0;
+    int CAPTURE_POLICY_LATENCY = 1;
 }
@@ -0,0 +1,90 @@
+package com.google.android.cameraview;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer of encoded H.264 video coming out of the recording pipeline.
+ * <p>
+ * Frames are pooled: once a consumer is done with the data it must call {@link #release()} so
+ * the buffer can be reused for a later frame. The frame must not be touched after that.
+ */
+public final class EncodedFrame {
+
+    /** The frame is a key (sync) frame. */
+    public static final int FLAG_KEY_FRAME = 1;
+
+    /** The frame holds codec specific data (SPS/PPS) rather than media data. */
+    public static final int FLAG_CODEC_CONFIG = 2;
+
+    /** The frame is the last one of the stream. */
+    public static final int FLAG_END_OF_STREAM = 4;
+
+    private final EncodedFramePool mPool;
+
+    private ByteBuffer mData;
+
+    private long mPresentationTimeUs;
+
+    private int mFlags;
+
+    boolean mInUse;
+
+    EncodedFrame(EncodedFramePool pool, int capacity) {
+        mPool = pool;
+        mData = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Copies the remaining bytes of {@code source} into this frame.
+     */
+    void set(ByteBuffer source, long presentationTimeUs, int flags) {
+        int size = source.remaining();
+        if (mData.capacity() < size) {
+            mData = ByteBuffer.allocateDirect(size);
+        }
+        mData.clear();
+        mData.put(source);
+        mData.flip();
+        mPresentationTimeUs = presentationTimeUs;
+        mFlags = flags;
+    }
+
+    int capacity() {
+        return mData.capacity();
+    }
+
+    /**
+     * @return The encoded bytes, positioned at the start of the frame and limited to its size.
+     */
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    public int getSize() {
+        return mData.limit();
+    }
+
+    public long getPresentationTimeUs() {
+        return mPresentationTimeUs;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public boolean isKeyFrame() {
+        return (mFlags & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig() {
+        return (mFlags & FLAG_CODEC_CONFIG) != 0;
+    }
+
+    /**
+     * Returns this frame to its pool.
+     */
+    public void release() {
+        mPool.release(this);
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.google.android.cameraview;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded pool of {@link EncodedFrame}s. Frames are acquired by the encoder thread and
+ * released by consumers on any thread.
+ */
+class EncodedFramePool {
+
+    private final ArrayDeque<EncodedFrame> mFree;
+
+    private final int mMaxFrames;
+
+    private int mAllocated;
+
+    EncodedFramePool(int maxFrames) {
+        mMaxFrames = maxFrames;
+        mFree = new ArrayDeque<>(maxFrames);
+    }
+
+    /**
+     * Takes a frame with room for at least {@code size} bytes.
+     *
+     * @return A frame, or {@code null} if all {@code maxFrames} frames are still held by consumers.
+     */
+    @Nullable
+    synchronized EncodedFrame acquire(int size) {
+        EncodedFrame frame = mFree.pollFirst();
+        if (frame == null) {
+            if (mAllocated == mMaxFrames) {
+                return null;
+            }
+            frame = new EncodedFrame(this, size);
+            mAllocated++;
+        }
+        frame.mInUse = true;
+        return frame;
+    }
+
+    synchronized void release(EncodedFrame frame) {
+        if (!frame.mInUse) {
+            throw new IllegalStateException("Encoded frame released twice");
+        }
+        frame.mInUse = false;
+        mFree.addFirst(frame);
+    }
+
+    synchronized int available() {
+        return mFree.size() + mMaxFrames - mAllocated;
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.google.android.cameraview;
+
+/**
+ * Receives the encoded video stream while recording, e.g. to forward it over a socket.
+ */
+public interface EncodedFrameSink {
+
+    /**
+     * Called on the encoder thread for every buffer produced by the video encoder, including the
+     * codec config buffer that precedes the first key frame. The frame must be handed back with
+     * {@link EncodedFrame#release()}; frames are dropped for the sink while none are free.
+     *
+     * @param frame The encoded frame.
+     */
+    void onEncodedFrame(EncodedFrame frame);
+
+}
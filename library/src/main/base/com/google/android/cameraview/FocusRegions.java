@@ -0,0 +1,154 @@
+package com.google.android.cameraview;
+
+/**
+ * Maps points between the preview shown in a view and the camera sensor, e.g. a touched point to
+ * a metering region, or a detected face to the view.
+ * <p>
+ * The preview stream doesn't always show the whole sensor: the camera crops the crop region,
+ * itself the whole active array unless zoomed, to the stream's aspect ratio. Points are mapped
+ * in two steps, between the view and normalized coordinates of the stream, then between those
+ * and the stream's crop computed by {@link #streamCrop}.
+ */
+final class FocusRegions {
+
+    private FocusRegions() {
+    }
+
+    /**
+     * Maps a point of the view showing the preview to normalized coordinates of the preview
+     * stream as the sensor sees it, undoing the preview transform, the camera orientation and,
+     * for front cameras, the mirroring.
+     *
+     * @param transform         The preview transform, as computed by
+     *                          {@link PreviewTransform#compute}.
+     * @param cameraOrientation The rotation in degrees between the camera sensor and the display.
+     * @param mirrored          {@code true} if the preview is mirrored, as for front cameras.
+     * @param out               Receives the x and y stream coordinates, from 0 to 1.
+     */
+    static void viewToSensor(float x, float y, int viewWidth, int viewHeight, float[] transform,
+                             int cameraOrientation, boolean mirrored, float[] out) {
+        // The preview transform only scales and translates
+        float previewX = clamp((x - transform[2]) / transform[0] / viewWidth);
+        float previewY = clamp((y - transform[5]) / transform[4] / viewHeight);
+        if (mirrored) {
+            previewX = 1 - previewX;
+        }
+        switch (cameraOrientation) {
+            case 90:
+                out[0] = previewY;
+                out[1] = 1 - previewX;
+                break;
+            case 180:
+                out[0] = 1 - previewX;
+                out[1] = 1 - previewY;
+                break;
+            case 270:
+                out[0] = 1 - previewY;
+                out[1] = previewX;
+                break;
+            default:
+                out[0] = previewX;
+                out[1] = previewY;
+                break;
+        }
+    }
+
+    /**
+     * The inverse of {@link #viewToSensor}: maps normalized stream coordinates to a point of the
+     * view showing the preview.
+     *
+     * @param out Receives the x and y coordinates in pixels of the view.
+     */
+    static void sensorToView(float sensorX, float sensorY, int viewWidth, int viewHeight,
+                             float[] transform, int cameraOrientation, boolean mirrored,
+                             float[] out) {
+        float previewX;
+        float previewY;
+        switch (cameraOrientation) {
+            case 90:
+                previewX = 1 - sensorY;
+                previewY = sensorX;
+                break;
+            case 180:
+                previewX = 1 - sensorX;
+                previewY = 1 - sensorY;
+                break;
+            case 270:
+                previewX = sensorY;
+                previewY = 1 - sensorX;
+                break;
+            default:
+                previewX = sensorX;
+                previewY = sensorY;
+                break;
+        }
+        if (mirrored) {
+            previewX = 1 - previewX;
+        }
+        out[0] = previewX * viewWidth * transform[0] + transform[2];
+        out[1] = previewY * viewHeight * transform[4] + transform[5];
+    }
+
+    /**
+     * Computes the part of the sensor a stream shows: the camera crops the crop region, centered,
+     * to the stream's aspect ratio.
+     *
+     * @param left         The crop region, in active array coordinates.
+     * @param streamWidth  The width of the stream, in the sensor's orientation.
+     * @param streamHeight The height of the stream, in the sensor's orientation.
+     * @param out          Receives the left, top, right and bottom of the stream's crop, in active
+     *                     array coordinates.
+     */
+    static void streamCrop(int left, int top, int right, int bottom, int streamWidth,
+                           int streamHeight, int[] out) {
+        int width = right - left;
+        int height = bottom - top;
+        // Compare the aspect ratios by cross multiplication
+        if ((long) width * streamHeight > (long) height * streamWidth) {
+            // Wider than the stream, cropped on both sides
+            int cropped = (int) ((long) height * streamWidth / streamHeight);
+            left += (width - cropped) / 2;
+            width = cropped;
+        } else {
+            // Taller than the stream, cropped at the top and bottom
+            int cropped = (int) ((long) width * streamHeight / streamWidth);
+            top += (height - cropped) / 2;
+            height = cropped;
+        }
+        out[0] = left;
+        out[1] = top;
+        out[2] = left + width;
+        out[3] = top + height;
+    }
+
+    /**
+     * Computes a square region centered on a point of a stream, moved as needed to stay within
+     * the stream's crop.
+     *
+     * @param streamX  The normalized x coordinate in the stream, from 0 to 1.
+     * @param streamY  The normalized y coordinate in the stream, from 0 to 1.
+     * @param crop     The stream's crop, as computed by {@link #streamCrop}.
+     * @param fraction The side of the square, as a fraction of the crop's shorter side.
+     * @param out      Receives the left, top, right and bottom of the region, in active array
+     *                 coordinates.
+     */
+    static void regionAround(float streamX, float streamY, int[] crop, float fraction,
+                             int[] out) {
+        int width = crop[2] - crop[0];
+        int height = crop[3] - crop[1];
+        int side = Math.max(1, (int) (Math.min(width, height) * fraction));
+        int left = crop[0] + Math.round(streamX * width) - side / 2;
+        int top = crop[1] + Math.round(streamY * height) - side / 2;
+        left = Math.max(crop[0], Math.min(left, crop[2] - side));
+        top = Math.max(crop[1], Math.min(top, crop[3] - side));
+        out[0] = left;
+        out[1] = top;
+        out[2] = left + side;
+        out[3] = top + side;
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.google.android.cameraview;
+
+/**
+ * The capture metadata of one preview frame, read from a {@link FrameMetadataRing}.
+ * <p>
+ * Instances are meant to be reused: {@link FrameMetadataRing#read(long, FrameMetadata)} overwrites
+ * every value. Values the camera didn't report are {@link #UNKNOWN}.
+ */
+public final class FrameMetadata {
+
+    /** A value the camera didn't report. */
+    public static final int UNKNOWN = -1;
+
+    long mIndex = UNKNOWN;
+
+    long mFrameNumber;
+
+    long mTimestampNs;
+
+    long mExposureTimeNs;
+
+    long mFrameDurationNs;
+
+    int mSensitivity;
+
+    int mLensState;
+
+    float mFocusDistance;
+
+    int mAfState;
+
+    int mAeState;
+
+    /**
+     * @return The position of the record in its ring, counted from the first frame published.
+     */
+    public long getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * @return The frame number of the capture result.
+     */
+    public long getFrameNumber() {
+        return mFrameNumber;
+    }
+
+    /**
+     * @return The sensor timestamp of the start of exposure, in nanoseconds.
+     */
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    public long getExposureTimeNs() {
+        return mExposureTimeNs;
+    }
+
+    public long getFrameDurationNs() {
+        return mFrameDurationNs;
+    }
+
+    /**
+     * @return The sensor sensitivity as an ISO value.
+     */
+    public int getSensitivity() {
+        return mSensitivity;
+    }
+
+    /**
+     * @return Whether the lens is stationary or moving, as {@code CaptureResult.LENS_STATE}.
+     */
+    public int getLensState() {
+        return mLensState;
+    }
+
+    /**
+     * @return The focus distance in diopters, or {@link #UNKNOWN}.
+     */
+    public float getFocusDistance() {
+        return mFocusDistance;
+    }
+
+    /**
+     * @return The auto-focus state, as {@code CaptureResult.CONTROL_AF_STATE}.
+     */
+    public int getAfState() {
+        return mAfState;
+    }
+
+    /**
+     * @return The auto-exposure state, as {@code CaptureResult.CONTROL_AE_STATE}.
+     */
+    public int getAeState() {
+        return mAeState;
+    }
+
+    @Override
+    public String toString() {
+        return "Frame " + mFrameNumber + " at " + mTimestampNs + " ns: exposure "
+                + mExposureTimeNs + " ns, duration " + mFrameDurationNs + " ns, ISO "
+                + mSensitivity + ", lens " + mLensState + " at " + mFocusDistance + ", AF "
+                + mAfState + ", AE " + mAeState;
+    }
+
+}
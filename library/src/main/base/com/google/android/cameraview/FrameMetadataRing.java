@@ -0,0 +1,160 @@
+package com.google.android.cameraview;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size ring of the latest preview frames' {@link FrameMetadata}, written by the camera
+ * and read without locks or allocations from any thread.
+ * <p>
+ * Each record is kept as primitive values in one {@link AtomicLongArray}. A slot starts with a
+ * sequence word that is odd while the camera writes the slot, and identifies which record the
+ * slot holds once written. A reader checks it before and after copying the values, so it never
+ * returns a record that was half written or overwritten meanwhile.
+ */
+public class FrameMetadataRing {
+
+    private static final int SEQUENCE = 0;
+    private static final int FRAME_NUMBER = 1;
+    private static final int TIMESTAMP = 2;
+    private static final int EXPOSURE_TIME = 3;
+    private static final int FRAME_DURATION = 4;
+    private static final int SENSITIVITY = 5;
+    private static final int LENS_STATE = 6;
+    private static final int FOCUS_DISTANCE = 7;
+    private static final int AF_STATE = 8;
+    private static final int AE_STATE = 9;
+
+    private static final int SLOT_SIZE = 10;
+
+    /** How many times reading the latest record is retried while the camera overwrites it. */
+    private static final int MAX_READ_ATTEMPTS = 4;
+
+    private final AtomicLongArray mSlots;
+
+    private final int mMask;
+
+    /** The number of records published; only the camera writes it. */
+    private final AtomicLong mPublished = new AtomicLong();
+
+    /**
+     * @param capacity The number of records kept, rounded up to a power of two.
+     */
+    FrameMetadataRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mSlots = new AtomicLongArray(size * SLOT_SIZE);
+    }
+
+    /**
+     * @return The number of records the ring keeps.
+     */
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return The index of the latest record, or {@link FrameMetadata#UNKNOWN} if none was
+     * published yet.
+     */
+    public long getLatestIndex() {
+        return mPublished.get() - 1;
+    }
+
+    /**
+     * Copies a record into {@code out}.
+     *
+     * @param index The index of the record, see {@link FrameMetadata#getIndex()}.
+     * @return {@code true} if the record was copied, {@code false} if it wasn't published yet or
+     * was already overwritten by a later frame.
+     */
+    public boolean read(long index, FrameMetadata out) {
+        if (index < 0 || index >= mPublished.get()) {
+            return false;
+        }
+        int base = (int) (index & mMask) * SLOT_SIZE;
+        long sequence = written(index);
+        if (mSlots.get(base + SEQUENCE) != sequence) {
+            return false;
+        }
+        long frameNumber = mSlots.get(base + FRAME_NUMBER);
+        long timestamp = mSlots.get(base + TIMESTAMP);
+        long exposureTime = mSlots.get(base + EXPOSURE_TIME);
+        long frameDuration = mSlots.get(base + FRAME_DURATION);
+        long sensitivity = mSlots.get(base + SENSITIVITY);
+        long lensState = mSlots.get(base + LENS_STATE);
+        long focusDistance = mSlots.get(base + FOCUS_DISTANCE);
+        long afState = mSlots.get(base + AF_STATE);
+        long aeState = mSlots.get(base + AE_STATE);
+        if (mSlots.get(base + SEQUENCE) != sequence) {
+            return false;
+        }
+        out.mIndex = index;
+        out.mFrameNumber = frameNumber;
+        out.mTimestampNs = timestamp;
+        out.mExposureTimeNs = exposureTime;
+        out.mFrameDurationNs = frameDuration;
+        out.mSensitivity = (int) sensitivity;
+        out.mLensState = (int) lensState;
+        out.mFocusDistance = Float.intBitsToFloat((int) focusDistance);
+        out.mAfState = (int) afState;
+        out.mAeState = (int) aeState;
+        return true;
+    }
+
+    /**
+     * Copies the latest record into {@code out}.
+     *
+     * @return {@code false} if no record was published yet.
+     */
+    public boolean readLatest(FrameMetadata out) {
+        for (int i = 0; i < MAX_READ_ATTEMPTS; i++) {
+            long index = getLatestIndex();
+            if (index < 0) {
+                return false;
+            }
+            if (read(index, out)) {
+                return true;
+            }
+        }
+        // The camera keeps overwriting the latest slot; an older record is stable for longer
+        return read(getLatestIndex() - 1, out);
+    }
+
+    /**
+     * Publishes the metadata of the next frame, overwriting the oldest record when the ring is
+     * full. Only one thread may publish.
+     */
+    void publish(long frameNumber, long timestampNs, long exposureTimeNs, long frameDurationNs,
+                 int sensitivity, int lensState, float focusDistance, int afState, int aeState) {
+        long index = mPublished.get();
+        int base = (int) (index & mMask) * SLOT_SIZE;
+        mSlots.set(base + SEQUENCE, written(index) - 1);
+        mSlots.set(base + FRAME_NUMBER, frameNumber);
+        mSlots.set(base + TIMESTAMP, timestampNs);
+        mSlots.set(base + EXPOSURE_TIME, exposureTimeNs);
+        mSlots.set(base + FRAME_DURATION, frameDurationNs);
+        mSlots.set(base + SENSITIVITY, sensitivity);
+        mSlots.set(base + LENS_STATE, lensState);
+        mSlots.set(base + FOCUS_DISTANCE, Float.floatToIntBits(focusDistance));
+        mSlots.set(base + AF_STATE, afState);
+        mSlots.set(base + AE_STATE, aeState);
+        mSlots.set(base + SEQUENCE, written(index));
+        mPublished.set(index + 1);
+    }
+
+    /**
+     * @return The sequence word of a slot holding the record {@code index}; it is even, and one
+     * less while the record is being written.
+     */
+    private static long written(long index) {
+        return (index + 1) * 2;
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.google.android.cameraview;
+
+import java.util.Arrays;
+
+/**
+ * Tracks how smoothly preview frames reach the screen: the intervals between frames, how many
+ * frames were dropped, and the delay from the sensor exposure to the display.
+ * <p>
+ * A frame counts as dropped when its interval exceeds 1.5 times the median of the recent
+ * intervals, one per missing median interval, so a variable frame rate in low light isn't
+ * mistaken for drops, and a lasting change of frame rate only counts as drops until the recent
+ * intervals catch up with it. Intervals and delays are kept in fixed-size histograms, so
+ * tracking never allocates.
+ */
+public class FramePacing {
+
+    /** Intervals needed before the median is trusted to count dropped frames. */
+    private static final int MIN_INTERVALS = 8;
+
+    /** The number of latest intervals the median is taken from. */
+    private static final int RECENT_INTERVALS = 16;
+
+    private final LatencyHistogram mIntervals = new LatencyHistogram();
+
+    private final LatencyHistogram mDelays = new LatencyHistogram();
+
+    private long mFrameCount;
+
+    private long mDroppedFrameCount;
+
+    /** Timestamp of the previous frame, or 0 when the next frame starts a new stream. */
+    private long mLastTimestampNs;
+
+    /** The latest intervals in microseconds, a ring written at {@link #mRecentNext}. */
+    private final long[] mRecentIntervalsUs = new long[RECENT_INTERVALS];
+
+    /** Scratch space to sort the recent intervals in. */
+    private final long[] mSortedIntervalsUs = new long[RECENT_INTERVALS];
+
+    private int mRecentCount;
+
+    private int mRecentNext;
+
+    /**
+     * Records a frame displayed in the preview.
+     *
+     * @param timestampNs   The sensor timestamp of the frame, e.g. from
+     *                      {@code SurfaceTexture.getTimestamp()}, or 0 if unknown.
+     * @param displayedAtNs When the frame was displayed, in the sensor timestamps' time base, or
+     *                      0 if unknown.
+     */
+    synchronized void onFrame(long timestampNs, long displayedAtNs) {
+        mFrameCount++;
+        if (timestampNs <= 0) {
+            return;
+        }
+        if (displayedAtNs > timestampNs) {
+            mDelays.record((displayedAtNs - timestampNs) / 1000);
+        }
+        long lastTimestampNs = mLastTimestampNs;
+        mLastTimestampNs = timestampNs;
+        if (lastTimestampNs == 0 || timestampNs <= lastTimestampNs) {
+            return;
+        }
+        long intervalUs = (timestampNs - lastTimestampNs) / 1000;
+        if (mRecentCount >= MIN_INTERVALS) {
+            long medianUs = getRecentMedianUs();
+            if (medianUs > 0 && intervalUs * 2 > medianUs * 3) {
+                mDroppedFrameCount += (intervalUs + medianUs / 2) / medianUs - 1;
+            }
+        }
+        mIntervals.record(intervalUs);
+        mRecentIntervalsUs[mRecentNext] = intervalUs;
+        mRecentNext = (mRecentNext + 1) % RECENT_INTERVALS;
+        mRecentCount = Math.min(mRecentCount + 1, RECENT_INTERVALS);
+    }
+
+    private long getRecentMedianUs() {
+        System.arraycopy(mRecentIntervalsUs, 0, mSortedIntervalsUs, 0, mRecentCount);
+        Arrays.sort(mSortedIntervalsUs, 0, mRecentCount);
+        return mSortedIntervalsUs[mRecentCount / 2];
+    }
+
+    /**
+     * Starts a new stream of frames, e.g. for a new capture session, so the gap before its first
+     * frame isn't measured and its frame rate isn't compared to the previous stream's.
+     */
+    synchronized void restart() {
+        mLastTimestampNs = 0;
+        mRecentCount = 0;
+        mRecentNext = 0;
+    }
+
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return The number of frames estimated to be missing between the frames displayed.
+     */
+    public synchronized long getDroppedFrameCount() {
+        return mDroppedFrameCount;
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100, e.g. 95.
+     * @return The interval between frames in microseconds, within 12.5%, or 0 if unknown.
+     */
+    public synchronized long getFrameIntervalPercentileUs(double percentile) {
+        return mIntervals.getPercentile(percentile);
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100, e.g. 95.
+     * @return The delay from the sensor exposure to the display in microseconds, within 12.5%,
+     * or 0 if unknown.
+     */
+    public synchronized long getDisplayDelayPercentileUs(double percentile) {
+        return mDelays.getPercentile(percentile);
+    }
+
+    /**
+     * Clears all the measurements.
+     */
+    public synchronized void reset() {
+        mIntervals.reset();
+        mDelays.reset();
+        mFrameCount = 0;
+        mDroppedFrameCount = 0;
+        mLastTimestampNs = 0;
+        mRecentCount = 0;
+        mRecentNext = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "frames=" + mFrameCount + " dropped=" + mDroppedFrameCount
+                + " interval p50=" + mIntervals.getPercentile(50) / 1000
+                + "ms p95=" + mIntervals.getPercentile(95) / 1000
+                + "ms p99=" + mIntervals.getPercentile(99) / 1000
+                + "ms display delay p50=" + mDelays.getPercentile(50) / 1000
+                + "ms p95=" + mDelays.getPercentile(95) / 1000 + "ms";
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.google.android.cameraview;
+
+/**
+ * A histogram of non-negative values in a fixed number of logarithmic buckets, so percentiles
+ * can be tracked for as long as needed in a constant amount of memory.
+ * <p>
+ * Values under 16 are counted exactly. Larger values fall in one of 8 buckets per power of two,
+ * so a percentile is off by at most 12.5%. Values from 2<sup>32</sup> on share the last bucket.
+ * <p>
+ * This class is not thread safe.
+ */
+class LatencyHistogram {
+
+    private static final int EXACT_VALUES = 16;
+
+    /** log2 of {@link #EXACT_VALUES}, the first power of two split in buckets. */
+    private static final int FIRST_EXPONENT = 4;
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int LAST_EXPONENT = 31;
+
+    static final int BUCKET_COUNT =
+            EXACT_VALUES + (LAST_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+
+    private long mCount;
+
+    private long mSum;
+
+    private long mMax;
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts[bucketOf(value)]++;
+        mCount++;
+        mSum += value;
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    long getMax() {
+        return mMax;
+    }
+
+    /**
+     * @return The mean of the values, or 0 if none was recorded.
+     */
+    long getMean() {
+        return mCount == 0 ? 0 : mSum / mCount;
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100.
+     * @return The upper bound of the bucket holding the percentile, at most the largest value
+     * recorded, or 0 if none was recorded.
+     */
+    long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * mCount);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+
+    void copyTo(LatencyHistogram other) {
+        System.arraycopy(mCounts, 0, other.mCounts, 0, BUCKET_COUNT);
+        other.mCount = mCount;
+        other.mSum = mSum;
+        other.mMax = mMax;
+    }
+
+    static int bucketOf(long value) {
+        if (value < EXACT_VALUES) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > LAST_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT_VALUES + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return The largest value counted in {@code bucket}.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < EXACT_VALUES) {
+            return bucket;
+        }
+        if (bucket == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = (bucket - EXACT_VALUES) / SUB_BUCKETS + FIRST_EXPONENT;
+        int subBucket = (bucket - EXACT_VALUES) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + subBucket + 1) * width - 1;
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.google.android.cameraview;
+
+/**
+ * Computes the transform that makes the camera preview fill its surface without being stretched
+ * or squashed: the preview is scaled up along one axis to the surface's aspect ratio, cropping
+ * the other, and centered.
+ */
+final class PreviewTransform {
+
+    /** Number of values of a 3x3 matrix, in the order used by {@code Matrix.setValues}. */
+    static final int VALUE_COUNT = 9;
+
+    private PreviewTransform() {
+    }
+
+    /**
+     * @param cameraOrientation The rotation in degrees between the camera sensor and the
+     *                          display; at 90 or 270 the preview's width and height swap.
+     * @param values            Receives the matrix values, must hold {@link #VALUE_COUNT}.
+     */
+    static void compute(int surfaceWidth, int surfaceHeight, int previewWidth, int previewHeight,
+                        int cameraOrientation, float[] values) {
+        if (cameraOrientation == 270 || cameraOrientation == 90) {
+            int width = previewWidth;
+            previewWidth = previewHeight;
+            previewHeight = width;
+        }
+
+        float ratioSurface = (float) surfaceWidth / surfaceHeight;
+        float ratioPreview = (float) previewWidth / previewHeight;
+
+        float scaleX;
+        float scaleY;
+        if (ratioPreview < ratioSurface) {
+            scaleX = 1;
+            scaleY = (float) previewHeight / surfaceHeight;
+        } else {
+            scaleX = (float) previewWidth / surfaceWidth;
+            scaleY = 1;
+        }
+
+        // If we scaled we also have to translate so that the preview is centered
+        float translateX = scaleX != 1 ? (((surfaceWidth * scaleX) - surfaceWidth) / 2) * -1 : 0;
+        float translateY = scaleY != 1 ? (((surfaceHeight * scaleY) - surfaceHeight) / 2) * -1 : 0;
+
+        values[0] = scaleX;
+        values[1] = 0;
+        values[2] = translateX;
+        values[3] = 0;
+        values[4] = scaleY;
+        values[5] = translateY;
+        values[6] = 0;
+        values[7] = 0;
+        values[8] = 1;
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.google.android.cameraview;
+
+import android.support.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU memo of the sizes chosen for a camera and surface geometry, so that rebuilding a
+ * capture session doesn't run the {@link SizeSelector}s again.
+ * <p>
+ * Entries depend on the sizes the selectors saw, so the cache has to be cleared whenever the
+ * selectors, the aspect ratio tolerance or a camera's stream configuration change.
+ */
+final class SizeDecisionCache {
+
+    static final int OUTPUT_PREVIEW = 0;
+    static final int OUTPUT_VIDEO = 1;
+    static final int OUTPUT_PICTURE = 2;
+
+    static final int MODE_PICTURE = 0;
+    static final int MODE_VIDEO = 1;
+    static final int MODE_HIGH_SPEED_VIDEO = 2;
+
+    private final LinkedHashMap<Key, Size> mDecisions;
+
+    private int mHitCount;
+
+    private int mMissCount;
+
+    SizeDecisionCache(final int maxEntries) {
+        mDecisions = new LinkedHashMap<Key, Size>(maxEntries + 1, 1f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Size> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return The size memoized for {@code key}, or {@code null}.
+     */
+    @Nullable
+    synchronized Size get(Key key) {
+        Size size = mDecisions.get(key);
+        if (size != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+        return size;
+    }
+
+    synchronized void put(Key key, Size size) {
+        mDecisions.put(key, size);
+    }
+
+    synchronized void clear() {
+        mDecisions.clear();
+    }
+
+    synchronized int size() {
+        return mDecisions.size();
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * What a size decision depends on, besides the cleared-on-change state above.
+     */
+    static final class Key {
+
+        final String cameraId;
+        final int output;
+        final int mode;
+        final int surfaceWidth;
+        final int surfaceHeight;
+        final int orientation;
+        final int minVideoWidth;
+        final int minVideoHeight;
+        final int videoFrameRate;
+
+        Key(String cameraId, int output, int mode, int surfaceWidth, int surfaceHeight,
+            int orientation, int minVideoWidth, int minVideoHeight, int videoFrameRate) {
+            this.cameraId = cameraId;
+            this.output = output;
+            this.mode = mode;
+            this.surfaceWidth = surfaceWidth;
+            this.surfaceHeight = surfaceHeight;
+            this.orientation = orientation;
+            this.minVideoWidth = minVideoWidth;
+            this.minVideoHeight = minVideoHeight;
+            this.videoFrameRate = videoFrameRate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return output == key.output && mode == key.mode &&
+                    surfaceWidth == key.surfaceWidth && surfaceHeight == key.surfaceHeight &&
+                    orientation == key.orientation && minVideoWidth == key.minVideoWidth &&
+                    minVideoHeight == key.minVideoHeight && videoFrameRate == key.videoFrameRate &&
+                    cameraId.equals(key.cameraId);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = cameraId.hashCode();
+            result = 31 * result + output;
+            result = 31 * result + mode;
+            result = 31 * result + surfaceWidth;
+            result = 31 * result + surfaceHeight;
+            result = 31 * result + orientation;
+            result = 31 * result + minVideoWidth;
+            result = 31 * result + minVideoHeight;
+            result = 31 * result + videoFrameRate;
+            return result;
+        }
+    }
+
+}
@@ -16,25 +16,103 @@
 
 package com.google.android.cameraview;
 
-import android.content.res.Configuration;
-import android.support.annotation.Nullable;
-import android.support.v4.util.ArrayMap;
 import android.support.v4.util.ArraySet;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
  * A collection class that automatically groups {@link Size}s by their {@link AspectRatio}s.
+ * <p>
+ * Sizes are kept in an immutable index, replaced on every change: one bucket per aspect ratio,
+ * each holding its sizes packed into {@code long}s (see {@link #pack(int, int)}) and sorted by
+ * area. The packed queries such as {@link #smallestAtLeast(AspectRatio, int, int)} binary search
+ * the index without allocating; the {@link Size} based methods are views over it.
+ * <p>
+ * The ratio values are kept alongside the buckets, so the ratios closest to a target are visited
+ * by a binary search followed by an outward walk rather than by sorting.
+ * <p>
+ * With a non-zero tolerance, sizes whose ratios are within it of a bucket's, relative to its
+ * value, join that bucket instead of starting their own, and lookups by ratio resolve to the
+ * closest bucket within it. This keeps sizes such as 1920x1088 with 16:9. Buckets are started by
+ * the ratios with the smallest terms first, whatever order the sizes are added in, so the same
+ * sizes always group the same way; each bucket is keyed by the ratio with the smallest terms among
+ * its sizes.
+ * <p>
+ * Only the library fills the map; {@link SizeSelector}s are handed the live maps of a camera, so
+ * they can only query them.
  */
-class SizeMap {
+public class SizeMap {
 
-    private final ArrayMap<AspectRatio, SortedSet<Size>> mRatios = new ArrayMap<>();
+    /** Returned by the packed queries when no size matches. */
+    public static final long NONE = -1;
+
+    private static final long[][] NO_SIZES = new long[0][];
+
+    private static final long[] NO_SIZES_IN_BUCKET = new long[0];
+
+    /** Simplest ratio first, by the sum of its terms, then by value. */
+    private static final Comparator<AspectRatio> CANONICAL_ORDER = new Comparator<AspectRatio>() {
+        @Override
+        public int compare(AspectRatio lhs, AspectRatio rhs) {
+            int c = Integer.compare(lhs.getX() + lhs.getY(), rhs.getX() + rhs.getY());
+            return c != 0 ? c : compareRatios(lhs, rhs);
+        }
+    };
+
+    /**
+     * Orders sizes like the index, by area then width; {@link Size#compareTo(Size)} only
+     * compares areas, so a set ordered by it would drop sizes of the same area.
+     */
+    private static final Comparator<Size> SIZE_ORDER = new Comparator<Size>() {
+        @Override
+        public int compare(Size lhs, Size rhs) {
+            return compareSizes(pack(lhs.getWidth(), lhs.getHeight()),
+                                pack(rhs.getWidth(), rhs.getHeight()));
+        }
+    };
+
+    private volatile Index mIndex;
+
+    SizeMap() {
+        this(0);
+    }
+
+    /**
+     * @param tolerance The largest relative difference between ratios grouped together.
+     */
+    SizeMap(float tolerance) {
+        mIndex = new Index(new AspectRatio[0], NO_SIZES, tolerance);
+    }
+
+    /**
+     * Packs a size into a {@code long} as {@code width << 32 | height}.
+     */
+    public static long pack(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    public static int unpackWidth(long size) {
+        return (int) (size >>> 32);
+    }
+
+    public static int unpackHeight(long size) {
+        return (int) size;
+    }
+
+    public static Size unpack(long size) {
+        return new Size(unpackWidth(size), unpackHeight(size));
+    }
+
+    private static long area(long size) {
+        return (long) unpackWidth(size) * unpackHeight(size);
+    }
 
     /**
      * Add a new {@link Size} to this collection.
@@ -42,81 +120,528 @@ class SizeMap {
      * @param size The size to add.
      * @return {@code true} if it is added, {@code false} if it already exists and is not added.
      */
-    public boolean add(Size size) {
-        for (AspectRatio ratio : mRatios.keySet()) {
-            if (ratio.matches(size)) {
-                final SortedSet<Size> sizes = mRatios.get(ratio);
-                if (sizes.contains(size)) {
-                    return false;
-                } else {
-                    sizes.add(size);
-                    return true;
-                }
+    synchronized boolean add(Size size) {
+        Index index = mIndex;
+        long packed = pack(size.getWidth(), size.getHeight());
+        if (index.mTolerance > 0) {
+            if (index.contains(packed)) {
+                return false;
             }
+            // The bucket a size joins may depend on sizes added after it, so regroup them all
+            long[] sizes = index.allSizes(1);
+            sizes[sizes.length - 1] = packed;
+            mIndex = group(sizes, index.mTolerance);
+            return true;
+        }
+        AspectRatio ratio = AspectRatio.of(size.getWidth(), size.getHeight());
+        int bucket = index.find(ratio);
+        if (bucket < 0) {
+            // None of the existing ratio matches the provided size; add a new key
+            mIndex = index.withBucket(-bucket - 1, ratio, new long[]{packed});
+            return true;
         }
-        // None of the existing ratio matches the provided size; add a new key
-        SortedSet<Size> sizes = new TreeSet<>();
-        sizes.add(size);
-        mRatios.put(AspectRatio.of(size.getWidth(), size.getHeight()), sizes);
+        long[] sizes = index.mSizes[bucket];
+        int position = indexOf(sizes, packed);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+        long[] added = new long[sizes.length + 1];
+        System.arraycopy(sizes, 0, added, 0, position);
+        added[position] = packed;
+        System.arraycopy(sizes, position, added, position + 1, sizes.length - position);
+        mIndex = index.withSizes(bucket, added);
         return true;
     }
 
+    /**
+     * Changes the tolerance and regroups the sizes already added.
+     */
+    synchronized void setTolerance(float tolerance) {
+        Index index = mIndex;
+        if (index.mTolerance == tolerance) {
+            return;
+        }
+        mIndex = group(index.allSizes(0), tolerance);
+    }
+
+    /**
+     * Groups sizes into buckets regardless of the order they come in. Their ratios are visited
+     * simplest first, each starting a bucket unless it is within the tolerance of a bucket
+     * already started, so every bucket is keyed by its simplest ratio.
+     */
+    private static Index group(long[] sizes, float tolerance) {
+        List<AspectRatio> ratios = new ArrayList<>();
+        for (long size : sizes) {
+            AspectRatio ratio = AspectRatio.of(unpackWidth(size), unpackHeight(size));
+            if (!ratios.contains(ratio)) {
+                ratios.add(ratio);
+            }
+        }
+        Collections.sort(ratios, CANONICAL_ORDER);
+        Index index = new Index(new AspectRatio[0], NO_SIZES, tolerance);
+        // The key of the bucket each ratio joined, parallel to ratios
+        AspectRatio[] keys = new AspectRatio[ratios.size()];
+        for (int i = 0; i < keys.length; i++) {
+            AspectRatio ratio = ratios.get(i);
+            int nearest = index.nearest(ratio);
+            if (nearest >= 0) {
+                keys[i] = index.mRatios[nearest];
+            } else {
+                keys[i] = ratio;
+                index = index.withBucket(-index.find(ratio) - 1, ratio, NO_SIZES_IN_BUCKET);
+            }
+        }
+        int[] buckets = new int[sizes.length];
+        int[] counts = new int[index.mRatios.length];
+        for (int i = 0; i < sizes.length; i++) {
+            AspectRatio ratio = AspectRatio.of(unpackWidth(sizes[i]), unpackHeight(sizes[i]));
+            buckets[i] = index.find(keys[ratios.indexOf(ratio)]);
+            counts[buckets[i]]++;
+        }
+        long[][] grouped = new long[counts.length][];
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            grouped[bucket] = new long[counts[bucket]];
+            counts[bucket] = 0;
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            grouped[buckets[i]][counts[buckets[i]]++] = sizes[i];
+        }
+        for (long[] bucket : grouped) {
+            sortSizes(bucket);
+        }
+        return new Index(index.mRatios, grouped, tolerance);
+    }
+
+    public float getTolerance() {
+        return mIndex.mTolerance;
+    }
+
     /**
      * Removes the specified aspect ratio and all sizes associated with it.
      *
      * @param ratio The aspect ratio to be removed.
      */
-    public void remove(AspectRatio ratio) {
-        mRatios.remove(ratio);
+    synchronized void remove(AspectRatio ratio) {
+        Index index = mIndex;
+        int bucket = index.bucketOf(ratio);
+        if (bucket >= 0) {
+            mIndex = index.withoutBucket(bucket);
+        }
+    }
+
+    public Set<AspectRatio> ratios() {
+        return mIndex.ratioSet();
     }
 
-    Set<AspectRatio> ratios() {
-        return mRatios.keySet();
+    /**
+     * @return {@code true} if {@code ratio} has a bucket, within the tolerance.
+     */
+    public boolean containsRatio(AspectRatio ratio) {
+        return mIndex.bucketOf(ratio) >= 0;
     }
 
-    List<AspectRatio> ratiosSortedByClosest(final AspectRatio aspectRatio) {
-        List<AspectRatio> aspectRatios = new ArrayList<>(ratios());
-        Collections.sort(aspectRatios, new Comparator<AspectRatio>() {
-            @Override public int compare(AspectRatio ratio1, AspectRatio ratio2) {
-                float aspectRatioValue = aspectRatio.toFloat();
-                float ratio1Value = ratio1.toFloat();
-                float ratio2Value = ratio2.toFloat();
+    public List<AspectRatio> ratiosSortedByClosest(AspectRatio aspectRatio) {
+        return ratiosSortedByClosest(aspectRatio, Float.POSITIVE_INFINITY);
+    }
 
-                float ratio1Diff = Math.abs(ratio1Value - aspectRatioValue);
-                float ratio2Diff = Math.abs(ratio2Value - aspectRatioValue);
-                return Float.compare(ratio1Diff, ratio2Diff);
+    /**
+     * @param tolerance The largest difference to {@code aspectRatio} to include, relative to its
+     *                  value.
+     * @return The ratios within {@code tolerance} of {@code aspectRatio}, closest first.
+     */
+    public List<AspectRatio> ratiosSortedByClosest(AspectRatio aspectRatio, float tolerance) {
+        Index index = mIndex;
+        float value = aspectRatio.toFloat();
+        float maxDiff = value * tolerance;
+        List<AspectRatio> aspectRatios = new ArrayList<>(index.mRatios.length);
+        int right = index.ceiling(value);
+        int left = right - 1;
+        int bucket;
+        while ((bucket = closer(index.mValues, value, left, right, maxDiff)) >= 0) {
+            if (bucket == left) {
+                left--;
+            } else {
+                right++;
             }
-        });
+            aspectRatios.add(index.mRatios[bucket]);
+        }
         return aspectRatios;
     }
 
-    SortedSet<Size> sizes(AspectRatio ratio) {
-        if (mRatios.containsKey(ratio)) {
-            return mRatios.get(ratio);
+    public SortedSet<Size> sizes(AspectRatio ratio) {
+        Index index = mIndex;
+        int bucket = index.bucketOf(ratio);
+        if (bucket >= 0) {
+            return index.sizeSet(bucket);
+        }
+        return new TreeSet<>(SIZE_ORDER);
+    }
+
+    public Size largest() {
+        long largest = largestOverall();
+        if (largest == NONE) {
+            throw new NoSuchElementException();
+        }
+        return unpack(largest);
+    }
+
+    /**
+     * @return The packed size with the largest area among all ratios, or {@link #NONE}.
+     */
+    public long largestOverall() {
+        Index index = mIndex;
+        long largest = NONE;
+        for (long[] sizes : index.mSizes) {
+            long candidate = sizes[sizes.length - 1];
+            if (largest == NONE || area(candidate) > area(largest)) {
+                largest = candidate;
+            }
         }
-        return new TreeSet<>();
+        return largest;
     }
 
-    Size largest() {
-        Set<Size> preferredSizes = new ArraySet<>();
-        for (AspectRatio ratio : mRatios.keySet()) {
-                preferredSizes.addAll(mRatios.get(ratio));
+    /**
+     * @return The packed size with the largest area for {@code ratio}, or {@link #NONE}.
+     */
+    public long largestIn(AspectRatio ratio) {
+        Index index = mIndex;
+        int bucket = index.bucketOf(ratio);
+        if (bucket < 0) {
+            return NONE;
+        }
+        long[] sizes = index.mSizes[bucket];
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * @return The packed size with the smallest area for {@code ratio} that is at least
+     * {@code width} wide and {@code height} high, or {@link #NONE}.
+     */
+    public long smallestAtLeast(AspectRatio ratio, int width, int height) {
+        Index index = mIndex;
+        int bucket = index.bucketOf(ratio);
+        if (bucket < 0) {
+            return NONE;
         }
-        return Collections.max(preferredSizes, new CompareSizesByArea());
+        return smallestAtLeast(index.mSizes[bucket], width, height);
     }
 
-    void clear() {
-        mRatios.clear();
+    public long smallestAtLeastClosest(AspectRatio ratio, int width, int height) {
+        return smallestAtLeastClosest(ratio, width, height, Float.POSITIVE_INFINITY);
     }
 
     /**
-     * Compares two {@code Size}s based on their areas.
+     * Same as {@link #smallestAtLeast(AspectRatio, int, int)}, trying the ratios closest to
+     * {@code ratio} first until one has a size large enough.
+     *
+     * @param tolerance The largest difference to {@code ratio} to try, relative to its value.
      */
-    private static class CompareSizesByArea implements Comparator<Size> {
+    public long smallestAtLeastClosest(AspectRatio ratio, int width, int height, float tolerance) {
+        Index index = mIndex;
+        float value = ratio.toFloat();
+        float maxDiff = value * tolerance;
+        int right = index.ceiling(value);
+        int left = right - 1;
+        int bucket;
+        while ((bucket = closer(index.mValues, value, left, right, maxDiff)) >= 0) {
+            if (bucket == left) {
+                left--;
+            } else {
+                right++;
+            }
+            long size = smallestAtLeast(index.mSizes[bucket], width, height);
+            if (size != NONE) {
+                return size;
+            }
+        }
+        return NONE;
+    }
 
-        @Override
-        public int compare(Size lhs, Size rhs) {
-            return Long.signum(lhs.getArea() - rhs.getArea());
+    private static long smallestAtLeast(long[] sizes, int width, int height) {
+        // Nothing smaller than width x height can cover it
+        for (int i = lowerBound(sizes, (long) width * height); i < sizes.length; i++) {
+            if (unpackWidth(sizes[i]) >= width && unpackHeight(sizes[i]) >= height) {
+                return sizes[i];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @return The packed size with the largest area for {@code ratio} that is at most
+     * {@code width} wide and {@code height} high, or {@link #NONE}.
+     */
+    public long largestAtMost(AspectRatio ratio, int width, int height) {
+        Index index = mIndex;
+        int bucket = index.bucketOf(ratio);
+        if (bucket < 0) {
+            return NONE;
+        }
+        long[] sizes = index.mSizes[bucket];
+        // Nothing larger than width x height can fit in it
+        for (int i = lowerBound(sizes, (long) width * height + 1) - 1; i >= 0; i--) {
+            if (unpackWidth(sizes[i]) <= width && unpackHeight(sizes[i]) <= height) {
+                return sizes[i];
+            }
+        }
+        return NONE;
+    }
+
+    synchronized void clear() {
+        mIndex = new Index(new AspectRatio[0], NO_SIZES, mIndex.mTolerance);
+    }
+
+    /**
+     * One step of the outward walk around {@code value}: picks whichever of {@code left} and
+     * {@code right} is closer, preferring the lower ratio on ties.
+     *
+     * @return The chosen bucket, or {@code -1} when both are out of range or further than
+     * {@code maxDiff}.
+     */
+    private static int closer(float[] values, float value, int left, int right, float maxDiff) {
+        float leftDiff = left >= 0 ? value - values[left] : Float.POSITIVE_INFINITY;
+        float rightDiff = right < values.length ? values[right] - value : Float.POSITIVE_INFINITY;
+        if (leftDiff <= rightDiff) {
+            return left >= 0 && leftDiff <= maxDiff ? left : -1;
+        }
+        return rightDiff <= maxDiff ? right : -1;
+    }
+
+    /**
+     * @return The index of the first size with an area of at least {@code area}.
+     */
+    private static int lowerBound(long[] sizes, long area) {
+        int low = 0;
+        int high = sizes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (area(sizes[mid]) < area) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Binary searches sizes ordered by area, then width.
+     *
+     * @return The index of {@code size}, or {@code -(insertion point) - 1}.
+     */
+    private static int indexOf(long[] sizes, long size) {
+        int low = 0;
+        int high = sizes.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compareSizes(sizes[mid], size);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -low - 1;
+    }
+
+    /**
+     * Sorts sizes by area, then width; buckets hold a few sizes, so an insertion sort does.
+     */
+    private static void sortSizes(long[] sizes) {
+        for (int i = 1; i < sizes.length; i++) {
+            long size = sizes[i];
+            int j = i - 1;
+            while (j >= 0 && compareSizes(sizes[j], size) > 0) {
+                sizes[j + 1] = sizes[j];
+                j--;
+            }
+            sizes[j + 1] = size;
+        }
+    }
+
+    private static int compareSizes(long a, long b) {
+        int c = Long.compare(area(a), area(b));
+        return c != 0 ? c : Integer.compare(unpackWidth(a), unpackWidth(b));
+    }
+
+    /**
+     * Compares the values of two ratios exactly, by cross multiplication.
+     */
+    private static int compareRatios(AspectRatio a, AspectRatio b) {
+        return Long.compare((long) a.getX() * b.getY(), (long) b.getX() * a.getY());
+    }
+
+    /**
+     * An immutable snapshot of the buckets, ordered by ascending ratio value.
+     */
+    private static final class Index {
+
+        final AspectRatio[] mRatios;
+
+        // Parallel to mRatios
+        final float[] mValues;
+
+        final long[][] mSizes;
+
+        final float mTolerance;
+
+        // Views built on first use; racing threads build equal instances
+        private Set<AspectRatio> mRatioSet;
+
+        private final SortedSet<Size>[] mSizeSets;
+
+        @SuppressWarnings("unchecked")
+        Index(AspectRatio[] ratios, long[][] sizes, float tolerance) {
+            mRatios = ratios;
+            mSizes = sizes;
+            mTolerance = tolerance;
+            mSizeSets = new SortedSet[ratios.length];
+            mValues = new float[ratios.length];
+            for (int i = 0; i < ratios.length; i++) {
+                mValues[i] = ratios[i].toFloat();
+            }
+        }
+
+        /**
+         * @return The first bucket with a ratio value of at least {@code value}.
+         */
+        int ceiling(float value) {
+            int low = 0;
+            int high = mValues.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mValues[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return The bucket of {@code ratio}, or {@code -(insertion point) - 1}.
+         */
+        int find(AspectRatio ratio) {
+            int low = 0;
+            int high = mRatios.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int c = compareRatios(mRatios[mid], ratio);
+                if (c < 0) {
+                    low = mid + 1;
+                } else if (c > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -low - 1;
+        }
+
+        /**
+         * @return The bucket of {@code ratio}, or else the closest one within the tolerance, or
+         * {@code -1}.
+         */
+        int bucketOf(AspectRatio ratio) {
+            int bucket = find(ratio);
+            return bucket >= 0 ? bucket : nearest(ratio);
+        }
+
+        /**
+         * @return The bucket closest to {@code ratio} within the tolerance, or {@code -1}.
+         */
+        int nearest(AspectRatio ratio) {
+            if (mTolerance <= 0) {
+                return -1;
+            }
+            float value = ratio.toFloat();
+            int right = ceiling(value);
+            return closer(mValues, value, right - 1, right, value * mTolerance);
+        }
+
+        boolean contains(long size) {
+            for (long[] sizes : mSizes) {
+                if (indexOf(sizes, size) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @param extra The number of free slots to leave at the end.
+         * @return All the sizes, in no particular order.
+         */
+        long[] allSizes(int extra) {
+            int count = extra;
+            for (long[] sizes : mSizes) {
+                count += sizes.length;
+            }
+            long[] all = new long[count];
+            int position = 0;
+            for (long[] sizes : mSizes) {
+                System.arraycopy(sizes, 0, all, position, sizes.length);
+                position += sizes.length;
+            }
+            return all;
+        }
+
+        Index withBucket(int position, AspectRatio ratio, long[] sizes) {
+            int count = mRatios.length;
+            AspectRatio[] ratios = new AspectRatio[count + 1];
+            long[][] buckets = new long[count + 1][];
+            System.arraycopy(mRatios, 0, ratios, 0, position);
+            System.arraycopy(mSizes, 0, buckets, 0, position);
+            ratios[position] = ratio;
+            buckets[position] = sizes;
+            System.arraycopy(mRatios, position, ratios, position + 1, count - position);
+            System.arraycopy(mSizes, position, buckets, position + 1, count - position);
+            return new Index(ratios, buckets, mTolerance);
+        }
+
+        Index withSizes(int bucket, long[] sizes) {
+            long[][] buckets = mSizes.clone();
+            buckets[bucket] = sizes;
+            return new Index(mRatios, buckets, mTolerance);
+        }
+
+        Index withoutBucket(int bucket) {
+            int count = mRatios.length;
+            AspectRatio[] ratios = new AspectRatio[count - 1];
+            long[][] buckets = new long[count - 1][];
+            System.arraycopy(mRatios, 0, ratios, 0, bucket);
+            System.arraycopy(mSizes, 0, buckets, 0, bucket);
+            System.arraycopy(mRatios, bucket + 1, ratios, bucket, count - bucket - 1);
+            System.arraycopy(mSizes, bucket + 1, buckets, bucket, count - bucket - 1);
+            return new Index(ratios, buckets, mTolerance);
+        }
+
+        Set<AspectRatio> ratioSet() {
+            Set<AspectRatio> set = mRatioSet;
+            if (set == null) {
+                ArraySet<AspectRatio> ratios = new ArraySet<>(mRatios.length);
+                Collections.addAll(ratios, mRatios);
+                set = Collections.unmodifiableSet(ratios);
+                mRatioSet = set;
+            }
+            return set;
+        }
+
+        SortedSet<Size> sizeSet(int bucket) {
+            SortedSet<Size> set = mSizeSets[bucket];
+            if (set == null) {
+                TreeSet<Size> sizes = new TreeSet<>(SIZE_ORDER);
+                for (long size : mSizes[bucket]) {
+                    sizes.add(unpack(size));
+                }
+                set = Collections.unmodifiableSortedSet(sizes);
+                mSizeSets[bucket] = set;
+            }
+            return set;
         }
     }
 }
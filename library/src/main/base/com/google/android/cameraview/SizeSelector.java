@@ -0,0 +1,26 @@
+package com.google.android.cameraview;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Strategy choosing a preview, video or picture size out of the sizes a camera supports.
+ * <p>
+ * Implementations should be pure functions of their arguments: they may be called on any
+ * thread, and every time a capture session is started. {@link SizeSelectors} has the built-in
+ * ones.
+ */
+public interface SizeSelector {
+
+    /**
+     * @param sizes       The sizes supported for the output, grouped by aspect ratio.
+     * @param ratio       The aspect ratio wanted, as seen by the target.
+     * @param width       The width wanted, as seen by the target, or {@code 0} if any will do.
+     * @param height      The height wanted, as seen by the target, or {@code 0} if any will do.
+     * @param orientation The clockwise rotation in degrees from the sizes in {@code sizes} to the
+     *                    target: at 90 or 270 the target's width matches the sizes' height.
+     * @return The chosen size, or {@code null} to fall back to the largest available one.
+     */
+    @Nullable
+    Size select(SizeMap sizes, AspectRatio ratio, int width, int height, int orientation);
+
+}
@@ -0,0 +1,186 @@
+package com.google.android.cameraview;
+
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Built-in {@link SizeSelector}s.
+ */
+public final class SizeSelectors {
+
+    private SizeSelectors() {
+    }
+
+    /**
+     * The smallest size at least as large as the target, trying the aspect ratios closest to the
+     * target's first. Used for previews, so the buffer is never scaled up nor larger than needed.
+     */
+    public static SizeSelector smallestCover() {
+        return SMALLEST_COVER;
+    }
+
+    /**
+     * The smallest size of the target's aspect ratio at least as large as the target, or else the
+     * largest size of that aspect ratio. Used for videos.
+     */
+    public static SizeSelector smallestCoverOfRatio() {
+        return SMALLEST_COVER_OF_RATIO;
+    }
+
+    /**
+     * The largest size of the target's aspect ratio. Used for pictures.
+     */
+    public static SizeSelector largestOfRatio() {
+        return LARGEST_OF_RATIO;
+    }
+
+    /**
+     * The size whose area is closest to the target's, trying the aspect ratios closest to the
+     * target's first and taking the first that has any size.
+     */
+    public static SizeSelector closestArea() {
+        return CLOSEST_AREA;
+    }
+
+    /**
+     * The largest size of the target's aspect ratio with at most {@code megapixels} million
+     * pixels, or else its smallest size.
+     */
+    public static SizeSelector maxMegapixels(float megapixels) {
+        final long maxArea = (long) (megapixels * 1000000);
+        return new LargestFitting() {
+            @Override
+            boolean fits(Size size) {
+                return size.getArea() <= maxArea;
+            }
+        };
+    }
+
+    /**
+     * The largest size of the target's aspect ratio whose longer side is at most
+     * {@code maxLongEdge} pixels, or else its smallest size.
+     */
+    public static SizeSelector maxLongEdge(final int maxLongEdge) {
+        return new LargestFitting() {
+            @Override
+            boolean fits(Size size) {
+                return Math.max(size.getWidth(), size.getHeight()) <= maxLongEdge;
+            }
+        };
+    }
+
+    /**
+     * Exactly {@code width} x {@code height} when supported, or else the smallest size covering
+     * it, trying the aspect ratios closest to its own first. The target passed to the selector is
+     * ignored, so the result may not have the preview's aspect ratio. The size is given in the
+     * camera sensor's orientation, usually landscape.
+     */
+    public static SizeSelector exact(final int width, final int height) {
+        final AspectRatio ratio = AspectRatio.of(width, height);
+        return new SizeSelector() {
+            @Nullable
+            @Override
+            public Size select(SizeMap sizes, AspectRatio target, int targetWidth,
+                               int targetHeight, int orientation) {
+                return unpack(sizes.smallestAtLeastClosest(ratio, width, height));
+            }
+        };
+    }
+
+    /**
+     * Picks the largest size of the target's aspect ratio that {@link #fits(Size)}, or else the
+     * smallest one.
+     */
+    private abstract static class LargestFitting implements SizeSelector {
+
+        abstract boolean fits(Size size);
+
+        @Nullable
+        @Override
+        public Size select(SizeMap sizes, AspectRatio ratio, int width, int height,
+                           int orientation) {
+            Size best = null;
+            for (Size size : sizes.sizes(rotate(ratio, orientation))) {
+                if (best == null || fits(size)) {
+                    best = size;
+                }
+            }
+            return best;
+        }
+    }
+
+    private static final SizeSelector SMALLEST_COVER = new SizeSelector() {
+        @Nullable
+        @Override
+        public Size select(SizeMap sizes, AspectRatio ratio, int width, int height,
+                           int orientation) {
+            if (isRotated(orientation)) {
+                return unpack(sizes.smallestAtLeastClosest(ratio.inverse(), height, width));
+            }
+            return unpack(sizes.smallestAtLeastClosest(ratio, width, height));
+        }
+    };
+
+    private static final SizeSelector SMALLEST_COVER_OF_RATIO = new SizeSelector() {
+        @Nullable
+        @Override
+        public Size select(SizeMap sizes, AspectRatio ratio, int width, int height,
+                           int orientation) {
+            long size = isRotated(orientation) ?
+                    sizes.smallestAtLeast(ratio.inverse(), height, width) :
+                    sizes.smallestAtLeast(ratio, width, height);
+            if (size == SizeMap.NONE) {
+                size = sizes.largestIn(rotate(ratio, orientation));
+            }
+            return unpack(size);
+        }
+    };
+
+    private static final SizeSelector LARGEST_OF_RATIO = new SizeSelector() {
+        @Nullable
+        @Override
+        public Size select(SizeMap sizes, AspectRatio ratio, int width, int height,
+                           int orientation) {
+            return unpack(sizes.largestIn(rotate(ratio, orientation)));
+        }
+    };
+
+    private static final SizeSelector CLOSEST_AREA = new SizeSelector() {
+        @Nullable
+        @Override
+        public Size select(SizeMap sizes, AspectRatio ratio, int width, int height,
+                           int orientation) {
+            long area = (long) width * height;
+            List<AspectRatio> ratios = sizes.ratiosSortedByClosest(rotate(ratio, orientation));
+            if (ratios.isEmpty()) {
+                return null;
+            }
+            Size best = null;
+            for (Size size : sizes.sizes(ratios.get(0))) {
+                if (best == null ||
+                        Math.abs(size.getArea() - area) < Math.abs(best.getArea() - area)) {
+                    best = size;
+                }
+            }
+            return best;
+        }
+    };
+
+    /**
+     * @return {@code true} if widths and heights swap at {@code orientation}.
+     */
+    public static boolean isRotated(int orientation) {
+        return orientation == 90 || orientation == 270;
+    }
+
+    private static AspectRatio rotate(AspectRatio ratio, int orientation) {
+        return isRotated(orientation) ? ratio.inverse() : ratio;
+    }
+
+    @Nullable
+    private static Size unpack(long size) {
+        return size == SizeMap.NONE ? null : SizeMap.unpack(size);
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.google.android.cameraview;
+
+/**
+ * Bit rate arithmetic for the video bit rate strategies.
+ */
+final class VideoBitRates {
+
+    private VideoBitRates() {
+    }
+
+    /**
+     * @return The bit rate spending {@code bitsPerPixel} on every pixel of every frame.
+     */
+    static int fromBitsPerPixel(int width, int height, int frameRate, float bitsPerPixel) {
+        return clamp((double) width * height * frameRate * bitsPerPixel);
+    }
+
+    /**
+     * @return The bit rate filling {@code bytesPerMinute} of storage for every minute of video.
+     */
+    static int fromBytesPerMinute(long bytesPerMinute) {
+        return clamp(bytesPerMinute * 8.0 / 60);
+    }
+
+    /**
+     * Scales a reference bit rate, typically from a camcorder profile, by the number of pixels per
+     * second of the target video.
+     */
+    static int scale(int bitRate, int fromWidth, int fromHeight, int fromFrameRate,
+                     int toWidth, int toHeight, int toFrameRate) {
+        double from = (double) fromWidth * fromHeight * fromFrameRate;
+        double to = (double) toWidth * toHeight * toFrameRate;
+        return from > 0 ? clamp(bitRate * to / from) : bitRate;
+    }
+
+    private static int clamp(double bitRate) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(bitRate)));
+    }
+
+}
@@ -20,25 +20,35 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.Face;
+import android.hardware.camera2.params.MeteringRectangle;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
+import android.media.CamcorderProfile;
 import android.media.ImageReader;
 import android.media.MediaRecorder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.util.ArrayMap;
 import android.util.Log;
+import android.util.Range;
 import android.util.SparseIntArray;
 import android.view.Surface;
 import android.view.TextureView;
@@ -47,11 +57,8 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
-import java.util.SortedSet;
 
 import timber.log.Timber;
 
@@ -75,16 +82,57 @@ import timber.log.Timber;
      */
     private static final int MAX_PREVIEW_HEIGHT = 1080;
 
+    /**
+     * Relative difference under which aspect ratios are grouped, e.g. 1920x1088 with 16:9
+     */
+    private static final float DEFAULT_ASPECT_RATIO_TOLERANCE = 0.01f;
+
+    private static final int MAX_SIZE_DECISIONS = 16;
+
+    private static final int MAX_IMAGES = 2;
+
+    /** How old preview states may be for {@link Constants#CAPTURE_POLICY_LATENCY} to trust them. */
+    private static final long MAX_PREVIEW_RESULT_AGE_NS = 200000000;
+
+    /** How long {@link #focusAt(float, float)} waits for the lens to settle, in sensor time. */
+    private static final long FOCUS_TIMEOUT_NS = 3000000000L;
+
+    /** Side of the regions of {@link #focusAt(float, float)}, a fraction of the sensor's. */
+    private static final float FOCUS_REGION_FRACTION = 0.1f;
+
+    /** Minimum time between face updates with an unchanged number of faces, in sensor time. */
+    private static final long MIN_FACES_INTERVAL_NS = 100000000;
+
+    private static final int FRAME_METADATA_CAPACITY = 32;
+
+    private static final int EVENT_LOG_CAPACITY = 256;
+
+    /** Camcorder profiles considered by {@link Constants#VIDEO_BIT_RATE_CAMCORDER_PROFILE}. */
+    private static final int[] CAMCORDER_QUALITIES = {
+            CamcorderProfile.QUALITY_2160P,
+            CamcorderProfile.QUALITY_1080P,
+            CamcorderProfile.QUALITY_720P,
+            CamcorderProfile.QUALITY_480P,
+            CamcorderProfile.QUALITY_CIF,
+            CamcorderProfile.QUALITY_QVGA,
+            CamcorderProfile.QUALITY_QCIF,
+    };
+
     private final CameraManager mCameraManager;
 
     private MediaRecorder mMediaRecorder;
 
+    @Nullable private CodecRecorder mCodecRecorder;
+
+    @Nullable private EncodedFrameSink mEncodedFrameSink;
+
     private final TextureView.SurfaceTextureListener mSurfaceTextureListener
             = new TextureView.SurfaceTextureListener() {
 
         @Override
         public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
             Timber.d("Surface texture available, size %dx%d ", width, height);
+            logEvent(CameraEventLog.SURFACE_SIZE, width, height);
             mSurfaceInfo.configure(surface, width, height);
             startCaptureSession();
         }
@@ -92,18 +140,27 @@ import timber.log.Timber;
         @Override
         public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
             Timber.d("Surface texture size changed, new size %dx%d ", width, height);
+            logEvent(CameraEventLog.SURFACE_SIZE, width, height);
             mSurfaceInfo.configure(surface, width, height);
             startCaptureSession();
         }
 
         @Override
         public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+            logEvent(CameraEventLog.SURFACE_DESTROYED, 0, 0);
             mSurfaceInfo.configure(null, 0, 0);
             return true;
         }
 
         @Override
         public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+            // Unknown sensor time bases aren't comparable to any clock, so skip the display delay
+            mFramePacing.onFrame(surface.getTimestamp(),
+                                 mRealtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : 0);
+            if (mAwaitingFirstFrame) {
+                mAwaitingFirstFrame = false;
+                mark(CameraMetrics.EVENT_FIRST_FRAME);
+            }
         }
 
     };
@@ -113,6 +170,9 @@ import timber.log.Timber;
 
         @Override
         public void onOpened(@NonNull CameraDevice camera) {
+            mark(CameraMetrics.EVENT_OPENED);
+            CameraTrace.endAsync(CameraTrace.OPEN_CAMERA);
+            logEvent(CameraEventLog.OPENED, 0, 0);
             mCamera = camera;
             mCallback.onCameraOpened();
             startCaptureSession();
@@ -120,11 +180,14 @@ import timber.log.Timber;
 
         @Override
         public void onClosed(@NonNull CameraDevice camera) {
+            logEvent(CameraEventLog.CLOSED, 0, 0);
             mCallback.onCameraClosed();
         }
 
         @Override
         public void onDisconnected(@NonNull CameraDevice camera) {
+            logEvent(CameraEventLog.DISCONNECTED, 0, 0);
+            CameraTrace.endAsync(CameraTrace.OPEN_CAMERA);
             camera.close();
             mCamera = null;
         }
@@ -132,6 +195,8 @@ import timber.log.Timber;
         @Override
         public void onError(@NonNull CameraDevice camera, int error) {
             Timber.e("onError: cameraId: %s error: %d", camera.getId(), error);
+            logEvent(CameraEventLog.ERROR, error, 0);
+            CameraTrace.endAsync(CameraTrace.OPEN_CAMERA);
             camera.close();
             mCamera = null;
         }
@@ -146,20 +211,32 @@ import timber.log.Timber;
             if (mCamera == null) {
                 return;
             }
+            mark(CameraMetrics.EVENT_SESSION_CONFIGURED);
+            CameraTrace.endAsync(CameraTrace.CONFIGURE_SESSION);
+            logEvent(CameraEventLog.SESSION_CONFIGURED, 0, 0);
+            mFramePacing.restart();
             mCaptureSession = session;
             updateAutoFocus();
             updateFlash();
+            updateFaceDetection();
 
             new Handler(Looper.getMainLooper()).post(new Runnable() {
                 @Override
                 public void run() {
                     if (mStartVideoRecording) {
                         mStartVideoRecording = false;
-                        mMediaRecorder.start();
+                        if (mCodecRecorder != null) {
+                            mCodecRecorder.start();
+                        } else {
+                            mMediaRecorder.start();
+                        }
                         mRecording = true;
+                        mark(CameraMetrics.EVENT_RECORD_STARTED);
                     }
+                    mPreviewResultTracker.reset();
+                    mFocusStartedAtNs = 0;
                     try {
-                        mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+                        setRepeatingPreviewRequest();
                     } catch (CameraAccessException | IllegalStateException e) {
                         Timber.e(e, "Failed to start camera preview.");
                     }
@@ -170,10 +247,13 @@ import timber.log.Timber;
         @Override
         public void onConfigureFailed(@NonNull CameraCaptureSession session) {
             Timber.e("Failed to configure capture session.");
+            logEvent(CameraEventLog.SESSION_CONFIGURE_FAILED, 0, 0);
+            CameraTrace.endAsync(CameraTrace.CONFIGURE_SESSION);
         }
 
         @Override
         public void onClosed(@NonNull CameraCaptureSession session) {
+            logEvent(CameraEventLog.SESSION_CLOSED, 0, 0);
             if (mCaptureSession != null && mCaptureSession.equals(session)) {
                 mCaptureSession = null;
             }
@@ -181,6 +261,8 @@ import timber.log.Timber;
 
     };
 
+    private final PreviewResultTracker mPreviewResultTracker = new PreviewResultTracker();
+
     private PictureCaptureCallback mCaptureCallback = new PictureCaptureCallback() {
 
         @Override
@@ -189,6 +271,7 @@ import timber.log.Timber;
                                        CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
             setState(STATE_PRECAPTURE);
             try {
+                logEvent(CameraEventLog.CAPTURE_REQUEST, CameraEventLog.REQUEST_PRECAPTURE, 0);
                 mCaptureSession.capture(mPreviewRequestBuilder.build(), this, null);
                 mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
                                            CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
@@ -208,6 +291,104 @@ import timber.log.Timber;
             lockFocus();
         }
 
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                       @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            if (mFrameMetadataEnabled) {
+                publishFrameMetadata(result);
+            }
+            super.onCaptureCompleted(session, request, result);
+        }
+
+        @Override
+        public void onPhaseFinished(int state, long durationNs, boolean timedOut) {
+            logEvent(CameraEventLog.CAPTURE_PHASE, state, timedOut ? 1 : 0);
+            if (state == STATE_LOCKING) {
+                mMetrics.mark(CameraMetrics.EVENT_FOCUS_LOCKED,
+                              SystemClock.elapsedRealtimeNanos(), timedOut);
+            } else if (state == STATE_WAITING || (state == STATE_PRECAPTURE && timedOut)) {
+                // A precapture sequence that never starts skips waiting for it to finish
+                mMetrics.mark(CameraMetrics.EVENT_PRECAPTURE_DONE,
+                              SystemClock.elapsedRealtimeNanos(), timedOut);
+            }
+            if (timedOut) {
+                Timber.w("Capture phase %d timed out after %d ms, taking the picture anyway",
+                         state, durationNs / 1000000);
+            } else {
+                Timber.d("Capture phase %d took %d ms", state, durationNs / 1000000);
+            }
+        }
+
+    };
+
+    /**
+     * Follows the AF state in the preview frames after {@link #focusAt(float, float)} until the
+     * lens settles or {@link #FOCUS_TIMEOUT_NS} passes.
+     */
+    private final CameraCaptureSession.CaptureCallback mFocusCallback
+            = new CameraCaptureSession.CaptureCallback() {
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                       @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            if (mFocusStartedAtNs == 0) {
+                return;
+            }
+            // Frames requested before the trigger still report the previous AF state
+            if (mFocusTriggeredAtNs == 0) {
+                Integer trigger = request.get(CaptureRequest.CONTROL_AF_TRIGGER);
+                if (trigger == null || trigger != CaptureRequest.CONTROL_AF_TRIGGER_START) {
+                    return;
+                }
+                Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                mFocusTriggeredAtNs = timestamp != null ? timestamp : 1;
+            }
+            Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+            if (afState == null) {
+                finishFocus(false);
+            } else if (afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED) {
+                finishFocus(true);
+            } else if (afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) {
+                finishFocus(false);
+            } else {
+                Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                if (timestamp != null && timestamp - mFocusTriggeredAtNs > FOCUS_TIMEOUT_NS) {
+                    Timber.w("Focus timed out in AF state %d", afState);
+                    finishFocus(false);
+                }
+            }
+        }
+
+    };
+
+    /**
+     * Follows the preview frames for whichever of {@link #mFocusCallback},
+     * {@link #mPreviewResultTracker}, face detection and {@link #mFrameMetadata} currently need
+     * them.
+     */
+    private final CameraCaptureSession.CaptureCallback mPreviewCallback
+            = new CameraCaptureSession.CaptureCallback() {
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                       @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            if (mFocusStartedAtNs != 0) {
+                mFocusCallback.onCaptureCompleted(session, request, result);
+            }
+            if (mCapturePolicy == Constants.CAPTURE_POLICY_LATENCY) {
+                mPreviewResultTracker.onCaptureCompleted(session, request, result);
+            }
+            if (mFaceDetectMode != CaptureRequest.STATISTICS_FACE_DETECT_MODE_OFF) {
+                dispatchFaces(result);
+            }
+            if (mFrameMetadataEnabled) {
+                publishFrameMetadata(result);
+            }
+        }
+
     };
 
     private final ImageReader.OnImageAvailableListener mOnImageAvailableListener
@@ -219,9 +400,12 @@ import timber.log.Timber;
                 Image.Plane[] planes = image.getPlanes();
                 if (planes.length > 0) {
                     ByteBuffer buffer = planes[0].getBuffer();
+                    CameraTrace.beginSection(CameraTrace.COPY_JPEG);
                     byte[] data = new byte[buffer.remaining()];
                     buffer.get(data);
+                    CameraTrace.endSection();
                     mCallback.onPictureTaken(data);
+                    mark(CameraMetrics.EVENT_JPEG_DELIVERED);
                 }
             }
         }
@@ -243,30 +427,120 @@ import timber.log.Timber;
 
     private final SurfaceInfo mSurfaceInfo = new SurfaceInfo();
 
-    private final SizeMap mPreviewSizes = new SizeMap();
+    private final SizeMap mPreviewSizes = new SizeMap(DEFAULT_ASPECT_RATIO_TOLERANCE);
 
     @Nullable private Size mSelectPreviewSize = null;
 
-    private final SizeMap mOutputSizes = new SizeMap();
+    private final SizeMap mOutputSizes = new SizeMap(DEFAULT_ASPECT_RATIO_TOLERANCE);
+
+    /** JPEG sizes for video snapshots, filled in video mode. */
+    private final SizeMap mSnapshotSizes = new SizeMap(DEFAULT_ASPECT_RATIO_TOLERANCE);
+
+    @Nullable private Size mVideoSize;
+
+    private SizeSelector mPreviewSizeSelector = SizeSelectors.smallestCover();
+
+    private SizeSelector mVideoSizeSelector = SizeSelectors.smallestCoverOfRatio();
+
+    private SizeSelector mPictureSizeSelector = SizeSelectors.largestOfRatio();
+
+    // Reused by configureTransform(); TextureView copies the matrix it is given
+    private final Matrix mTransformMatrix = new Matrix();
+    private final float[] mTransformValues = new float[PreviewTransform.VALUE_COUNT];
+
+    // Inputs of the last transform applied, the sensor and display orientations combined
+    private int mTransformPreviewWidth;
+    private int mTransformPreviewHeight;
+    private int mTransformSurfaceWidth;
+    private int mTransformSurfaceHeight;
+    private int mTransformCameraOrientation = -1;
+
+    private final SizeDecisionCache mSizeDecisions = new SizeDecisionCache(MAX_SIZE_DECISIONS);
+
+    /** The last stream configuration seen for each camera, to notice when sizes change. */
+    private final ArrayMap<String, StreamConfigurationMap> mStreamConfigurations = new ArrayMap<>();
+
+    private Surface mPreviewSurface;
+
+    /** FPS ranges supported by each high speed video size, filled in high speed video mode. */
+    private final ArrayMap<Size, Range<Integer>[]> mHighSpeedFpsRanges = new ArrayMap<>();
 
     private int mFacing;
 
+    // Reused by focusAt()
+    private final float[] mFocusPoint = new float[2];
+    private final int[] mFocusCrop = new int[4];
+    private final int[] mFocusRegion = new int[4];
+
+    /** {@link SystemClock#elapsedRealtimeNanos()} when focusing started, 0 when not focusing. */
+    private long mFocusStartedAtNs;
+
+    /** Sensor timestamp of the frame with the AF trigger, 0 until it is seen. */
+    private long mFocusTriggeredAtNs;
+
+    private boolean mFaceDetection;
+
+    /** The face detect mode of the preview request, off when not detecting faces. */
+    private int mFaceDetectMode = CaptureRequest.STATISTICS_FACE_DETECT_MODE_OFF;
+
+    // Reused by dispatchFaces(), the rectangles are handed to the callback
+    private final ArrayList<RectF> mFaceBoundsPool = new ArrayList<>();
+    private final ArrayList<RectF> mFaces = new ArrayList<>();
+    private final float[] mFacePoint = new float[2];
+    private final int[] mFaceCrop = new int[4];
+
+    /** Sensor timestamp of the frame whose faces were last dispatched. */
+    private long mFacesDispatchedAtNs;
+
+    private final FrameMetadataRing mFrameMetadata = new FrameMetadataRing(FRAME_METADATA_CAPACITY);
+
+    private boolean mFrameMetadataEnabled;
+
+    private final CameraMetrics mMetrics = new CameraMetrics();
+
+    private final CameraEventLog mEventLog = new CameraEventLog(EVENT_LOG_CAPACITY);
+
+    /** Whether no preview frame was displayed yet since the camera was requested. */
+    private boolean mAwaitingFirstFrame;
+
+    private final FramePacing mFramePacing = new FramePacing();
+
+    /**
+     * Whether sensor timestamps use the {@link SystemClock#elapsedRealtimeNanos()} time base.
+     * Otherwise their time base is unknown, and they can only be compared to each other.
+     */
+    private boolean mRealtimeTimestamps;
+
     private boolean mAutoFocus;
 
     private int mFlash;
 
+    private int mCapturePolicy = Constants.CAPTURE_POLICY_QUALITY;
+
     private int mDisplayOrientation;
 
     private boolean mStartVideoRecording = false;
 
     private boolean mRecording = false;
 
+    private boolean mRecordingPaused = false;
+
     private String mVideoFilePath;
 
     private int mVideoEncodingBitRate;
 
+    private int mVideoBitRateStrategy;
+
+    private float mVideoBitsPerPixel;
+
+    private long mVideoBytesPerMinute;
+
+    private float mVideoEncodingBitRateScale = 1f;
+
     private int mVideoFrameRate;
 
+    @Nullable private Range<Integer> mAeTargetFpsRange;
+
     private int mMinVideoWidth;
 
     private int mMinVideoHeight;
@@ -277,6 +551,11 @@ import timber.log.Timber;
 
     private boolean mVideoMode = true;
 
+    private boolean mHighSpeedVideoModeRequested;
+
+    /** Whether the session is a constrained high speed one; resolved in {@link #collectCameraInfo()}. */
+    private boolean mHighSpeed;
+
     Camera2(Callback callback, Context context) {
         super(callback);
         mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
@@ -291,6 +570,17 @@ import timber.log.Timber;
     @Override
     void startVideoMode() {
         mVideoMode = true;
+        mHighSpeedVideoModeRequested = false;
+        startBackgroundThread();
+        chooseCameraIdByFacing();
+        collectCameraInfo();
+        startOpeningCamera();
+    }
+
+    @Override
+    void startHighSpeedVideoMode() {
+        mVideoMode = true;
+        mHighSpeedVideoModeRequested = true;
         startBackgroundThread();
         chooseCameraIdByFacing();
         collectCameraInfo();
@@ -300,6 +590,7 @@ import timber.log.Timber;
     @Override
     void startPictureMode() {
         mVideoMode = false;
+        mHighSpeedVideoModeRequested = false;
         startBackgroundThread();
         chooseCameraIdByFacing();
         collectCameraInfo();
@@ -313,15 +604,14 @@ import timber.log.Timber;
             mCamera.close();
             mCamera = null;
         }
-        if (mImageReader != null) {
-            mImageReader.close();
-            mImageReader = null;
-        }
+        closeImageReader();
         if (null != mMediaRecorder) {
             mMediaRecorder.release();
             mMediaRecorder = null;
         }
+        releaseCodecRecorder();
         mRecording = false;
+        mRecordingPaused = false;
 
         stopBackgroundThread();
     }
@@ -360,6 +650,34 @@ import timber.log.Timber;
         return mVideoEncodingBitRate;
     }
 
+    @Override
+    void setVideoBitRateStrategy(int strategy) {
+        mVideoBitRateStrategy = strategy;
+    }
+
+    @Override
+    int getVideoBitRateStrategy() {
+        return mVideoBitRateStrategy;
+    }
+
+    @Override
+    void setVideoBitsPerPixel(float bitsPerPixel) {
+        mVideoBitsPerPixel = bitsPerPixel;
+    }
+
+    @Override
+    void setVideoBytesPerMinute(long bytesPerMinute) {
+        mVideoBytesPerMinute = bytesPerMinute;
+    }
+
+    @Override
+    void setVideoEncodingBitRateScale(float scale) {
+        mVideoEncodingBitRateScale = Math.max(0f, Math.min(1f, scale));
+        if (mCodecRecorder != null) {
+            mCodecRecorder.setBitRateScale(mVideoEncodingBitRateScale);
+        }
+    }
+
     @Override
     void setVideoFrameRate(int videoFrameRate) {
         mVideoFrameRate = videoFrameRate;
@@ -370,6 +688,11 @@ import timber.log.Timber;
         return mVideoFrameRate;
     }
 
+    @Override
+    Range<Integer> getAeTargetFpsRange() {
+        return mAeTargetFpsRange;
+    }
+
     @Override
     void setMinVideoWidth(int minVideoWidth) {
         mMinVideoWidth = minVideoWidth;
@@ -390,6 +713,63 @@ import timber.log.Timber;
         return mMinVideoHeight;
     }
 
+    @Override
+    void setPreviewSizeSelector(SizeSelector selector) {
+        mPreviewSizeSelector = selector;
+        mSizeDecisions.clear();
+    }
+
+    @Override
+    void setVideoSizeSelector(SizeSelector selector) {
+        mVideoSizeSelector = selector;
+        mSizeDecisions.clear();
+    }
+
+    @Override
+    void setPictureSizeSelector(SizeSelector selector) {
+        mPictureSizeSelector = selector;
+        mSizeDecisions.clear();
+    }
+
+    @Override
+    void setAspectRatioTolerance(float tolerance) {
+        mPreviewSizes.setTolerance(tolerance);
+        mOutputSizes.setTolerance(tolerance);
+        mSnapshotSizes.setTolerance(tolerance);
+        mSizeDecisions.clear();
+    }
+
+    @Override
+    long getImageReaderMemoryBytes() {
+        ImageReader reader = mImageReader;
+        if (reader == null) {
+            return 0;
+        }
+        // JPEG buffers are sized by the camera HAL; the YUV 4:2:0 frame they encode is a close
+        // upper bound
+        return (long) reader.getWidth() * reader.getHeight() * 3 / 2 * reader.getMaxImages();
+    }
+
+    @Override
+    int getSizeDecisionHitCount() {
+        return mSizeDecisions.getHitCount();
+    }
+
+    @Override
+    int getSizeDecisionMissCount() {
+        return mSizeDecisions.getMissCount();
+    }
+
+    @Override
+    float getAspectRatioTolerance() {
+        return mPreviewSizes.getTolerance();
+    }
+
+    @Override
+    void setEncodedFrameSink(@Nullable EncodedFrameSink sink) {
+        mEncodedFrameSink = sink;
+    }
+
     @Override
     void setFacing(int facing) {
         if (mFacing == facing) {
@@ -398,7 +778,9 @@ import timber.log.Timber;
         mFacing = facing;
         if (isCameraOpened()) {
             stop();
-            if (mVideoMode) {
+            if (mHighSpeedVideoModeRequested) {
+                startHighSpeedVideoMode();
+            } else if (mVideoMode) {
                 startVideoMode();
             } else {
                 startPictureMode();
@@ -427,8 +809,7 @@ import timber.log.Timber;
             updateAutoFocus();
             if (mCaptureSession != null) {
                 try {
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                                                        mCaptureCallback, null);
+                    setRepeatingPreviewRequest();
                 } catch (CameraAccessException e) {
                     mAutoFocus = !mAutoFocus; // Revert
                 }
@@ -452,8 +833,7 @@ import timber.log.Timber;
             updateFlash();
             if (mCaptureSession != null) {
                 try {
-                    mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                                                        mCaptureCallback, null);
+                    setRepeatingPreviewRequest();
                 } catch (CameraAccessException e) {
                     mFlash = saved; // Revert
                 }
@@ -466,16 +846,227 @@ import timber.log.Timber;
         return mFlash;
     }
 
+    @Override
+    void setCapturePolicy(int capturePolicy) {
+        if (mCapturePolicy == capturePolicy) {
+            return;
+        }
+        mCapturePolicy = capturePolicy;
+        mPreviewResultTracker.reset();
+        if (mCaptureSession != null && mPreviewRequestBuilder != null) {
+            try {
+                // Attaches or detaches the preview result tracker
+                setRepeatingPreviewRequest();
+            } catch (CameraAccessException | IllegalStateException e) {
+                Timber.e(e, "Failed to update the preview callback.");
+            }
+        }
+    }
+
+    @Override
+    int getCapturePolicy() {
+        return mCapturePolicy;
+    }
+
+    @Override
+    void setFaceDetection(boolean faceDetection) {
+        if (mFaceDetection == faceDetection) {
+            return;
+        }
+        mFaceDetection = faceDetection;
+        if (mPreviewRequestBuilder != null) {
+            updateFaceDetection();
+            if (mCaptureSession != null) {
+                try {
+                    setRepeatingPreviewRequest();
+                } catch (CameraAccessException | IllegalStateException e) {
+                    Timber.e(e, "Failed to update face detection.");
+                }
+            }
+        }
+        if (!faceDetection && !mFaces.isEmpty()) {
+            mFaces.clear();
+            mCallback.onFacesDetected(mFaces);
+        }
+    }
+
+    @Override
+    boolean getFaceDetection() {
+        return mFaceDetection;
+    }
+
+    @Override
+    void setFrameMetadataEnabled(boolean enabled) {
+        if (mFrameMetadataEnabled == enabled) {
+            return;
+        }
+        mFrameMetadataEnabled = enabled;
+        if (mCaptureSession != null && mPreviewRequestBuilder != null) {
+            try {
+                // Attaches or detaches the preview callback
+                setRepeatingPreviewRequest();
+            } catch (CameraAccessException | IllegalStateException e) {
+                Timber.e(e, "Failed to update the preview callback.");
+            }
+        }
+    }
+
+    @Override
+    boolean isFrameMetadataEnabled() {
+        return mFrameMetadataEnabled;
+    }
+
+    @Override
+    FrameMetadataRing getFrameMetadata() {
+        return mFrameMetadata;
+    }
+
+    @Override
+    CameraMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    @Override
+    FramePacing getFramePacing() {
+        return mFramePacing;
+    }
+
+    @Override
+    CameraEventLog getEventLog() {
+        return mEventLog;
+    }
+
     @Override
     void takePicture() {
-        mCaptureCallback.clearLockFocusAttemptsCount();
-        if (mAutoFocus) {
+        // Only requests that are taken start the picture metrics, so none is left pending
+        if (mVideoMode) {
+            if (mRecording && mImageReader != null) {
+                mark(CameraMetrics.EVENT_PICTURE_REQUESTED);
+                captureVideoSnapshot();
+            } else {
+                Timber.w("Pictures can only be taken while recording in video mode");
+            }
+            return;
+        }
+        mark(CameraMetrics.EVENT_PICTURE_REQUESTED);
+        mCaptureCallback.reset();
+        // Taking the picture locks focus again, a pending focusAt() won't be reported
+        mFocusStartedAtNs = 0;
+        if (mAutoFocus && !canCaptureWithoutLocking()) {
             lockFocus();
         } else {
             captureStillPicture();
         }
     }
 
+    @Override
+    void focusAt(float x, float y) {
+        if (mCaptureSession == null || mPreviewRequestBuilder == null ||
+                mSelectPreviewSize == null ||
+                mCaptureCallback.getState() != PictureCaptureCallback.STATE_PREVIEW) {
+            return;
+        }
+        if (mHighSpeed) {
+            // Constrained high speed sessions reject single requests, so the trigger can't be sent
+            Timber.d("Can't focus on a region in high speed video mode");
+            return;
+        }
+        Integer maxAfRegions = mCameraCharacteristics.get(
+                CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
+        Integer maxAeRegions = mCameraCharacteristics.get(
+                CameraCharacteristics.CONTROL_MAX_REGIONS_AE);
+        boolean canFocus = mAutoFocus && maxAfRegions != null && maxAfRegions > 0 &&
+                FocusModeSelector.isAfModeSupported(mCameraCharacteristics,
+                                                    CaptureRequest.CONTROL_AF_MODE_AUTO);
+        boolean canMeter = maxAeRegions != null && maxAeRegions > 0;
+        if (!canFocus && !canMeter) {
+            Timber.d("Camera can't focus or meter on a region");
+            return;
+        }
+        if (!computePreviewCrop(mPreviewRequestBuilder.get(CaptureRequest.SCALER_CROP_REGION),
+                                mFocusCrop)) {
+            return;
+        }
+
+        FocusRegions.viewToSensor(x, y, mSurfaceInfo.width, mSurfaceInfo.height, mTransformValues,
+                                  getCameraOrientation(), mFacing == Constants.FACING_FRONT,
+                                  mFocusPoint);
+        FocusRegions.regionAround(mFocusPoint[0], mFocusPoint[1], mFocusCrop,
+                                  FOCUS_REGION_FRACTION, mFocusRegion);
+        MeteringRectangle[] regions = {new MeteringRectangle(
+                mFocusRegion[0], mFocusRegion[1], mFocusRegion[2] - mFocusRegion[0],
+                mFocusRegion[3] - mFocusRegion[1], MeteringRectangle.METERING_WEIGHT_MAX)};
+        if (canMeter) {
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_REGIONS, regions);
+        }
+        try {
+            if (!canFocus) {
+                setRepeatingPreviewRequest();
+                return;
+            }
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_REGIONS, regions);
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
+                                       CaptureRequest.CONTROL_AF_MODE_AUTO);
+            // Cancel any earlier scan so the new regions are used from the start
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                                       CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), null, null);
+            mFocusStartedAtNs = SystemClock.elapsedRealtimeNanos();
+            mFocusTriggeredAtNs = 0;
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                                       CaptureRequest.CONTROL_AF_TRIGGER_START);
+            logEvent(CameraEventLog.CAPTURE_REQUEST, CameraEventLog.REQUEST_FOCUS_AT, 0);
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), mFocusCallback, null);
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                                       CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+            setRepeatingPreviewRequest();
+        } catch (CameraAccessException | IllegalStateException e) {
+            mFocusStartedAtNs = 0;
+            Timber.e(e, "Failed to focus.");
+        }
+    }
+
+    /**
+     * Reports the result of {@link #focusAt(float, float)} and detaches {@link #mFocusCallback}
+     * from the preview frames. The lens stays where it settled, and the regions stay set, until
+     * the next picture or auto-focus change.
+     */
+    private void finishFocus(boolean focused) {
+        long durationMs = (SystemClock.elapsedRealtimeNanos() - mFocusStartedAtNs) / 1000000;
+        mFocusStartedAtNs = 0;
+        Timber.d("Focus %s in %d ms", focused ? "succeeded" : "failed", durationMs);
+        if (mCaptureSession != null &&
+                mCaptureCallback.getState() == PictureCaptureCallback.STATE_PREVIEW) {
+            try {
+                setRepeatingPreviewRequest();
+            } catch (CameraAccessException | IllegalStateException e) {
+                Timber.e(e, "Failed to update the preview callback.");
+            }
+        }
+        mCallback.onFocusFinished(focused, durationMs);
+    }
+
+    /**
+     * @return {@code true} if the latency capture policy is used and the latest preview frames
+     * show AF, AE and AWB have already converged, so the picture can be taken without locking
+     * focus or running a precapture sequence.
+     */
+    private boolean canCaptureWithoutLocking() {
+        if (mCapturePolicy != Constants.CAPTURE_POLICY_LATENCY) {
+            return false;
+        }
+        // These flash modes need the precapture sequence to fire the flash
+        if (mFlash == Constants.FLASH_ON || mFlash == Constants.FLASH_RED_EYE) {
+            return false;
+        }
+        if (!mPreviewResultTracker.isConverged(MAX_PREVIEW_RESULT_AGE_NS)) {
+            Timber.d("Preview hasn't converged (%s), locking focus", mPreviewResultTracker);
+            return false;
+        }
+        Timber.d("Preview has converged, capturing without locking focus");
+        return true;
+    }
+
     @Override
     void setDisplayOrientation(int displayOrientation) {
         mDisplayOrientation = displayOrientation;
@@ -490,6 +1081,7 @@ import timber.log.Timber;
             if (!isCameraOpened()) {
                 return;
             }
+            mark(CameraMetrics.EVENT_RECORD_START_REQUESTED);
             mVideoFilePath = videoFilePath;
             mStartVideoRecording = true;
             prepareMediaRecorder();
@@ -502,7 +1094,24 @@ import timber.log.Timber;
 
     @Override
     void stopRecordingVideo() {
+        mark(CameraMetrics.EVENT_RECORD_STOP_REQUESTED);
         mStartVideoRecording = false;
+        mRecordingPaused = false;
+        if (mCodecRecorder != null) {
+            mRecording = false;
+            try {
+                mCodecRecorder.stop();
+            } catch (RuntimeException e) {
+                Timber.e(e, "Failed to stop video encoding.");
+                //noinspection ResultOfMethodCallIgnored
+                new File(mVideoFilePath).delete();
+            } finally {
+                releaseCodecRecorder();
+                closeSnapshotImageReader();
+                mark(CameraMetrics.EVENT_RECORD_STOPPED);
+            }
+            return;
+        }
         try {
             mRecording = false;
             mMediaRecorder.stop();
@@ -512,6 +1121,8 @@ import timber.log.Timber;
             new File(mVideoFilePath).delete();
         } finally {
             mMediaRecorder.reset();
+            closeSnapshotImageReader();
+            mark(CameraMetrics.EVENT_RECORD_STOPPED);
         }
     }
 
@@ -520,6 +1131,51 @@ import timber.log.Timber;
         return mRecording;
     }
 
+    @Override
+    boolean pauseRecordingVideo() {
+        if (!mRecording || mRecordingPaused) {
+            return mRecordingPaused;
+        }
+        if (mCodecRecorder != null) {
+            mCodecRecorder.pause();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            pauseMediaRecorder();
+        } else {
+            Timber.w("Pausing a MediaRecorder recording requires API 24");
+            return false;
+        }
+        mRecordingPaused = true;
+        return true;
+    }
+
+    @Override
+    void resumeRecordingVideo() {
+        if (!mRecordingPaused) {
+            return;
+        }
+        mRecordingPaused = false;
+        if (mCodecRecorder != null) {
+            mCodecRecorder.resume();
+        } else {
+            resumeMediaRecorder();
+        }
+    }
+
+    @Override
+    boolean isRecordingVideoPaused() {
+        return mRecordingPaused;
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void pauseMediaRecorder() {
+        mMediaRecorder.pause();
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    private void resumeMediaRecorder() {
+        mMediaRecorder.resume();
+    }
+
     private void closePreviewSession() {
         if (mCaptureSession != null) {
             mCaptureSession.close();
@@ -534,6 +1190,7 @@ import timber.log.Timber;
      * {@link #mFacing}.</p>
      */
     private void chooseCameraIdByFacing() {
+        CameraTrace.beginSection(CameraTrace.CHOOSE_CAMERA_ID);
         try {
             int internalFacing = INTERNAL_FACINGS.get(mFacing);
             final String[] ids = mCameraManager.getCameraIdList();
@@ -567,6 +1224,8 @@ import timber.log.Timber;
             mFacing = Constants.FACING_BACK;
         } catch (CameraAccessException e) {
             throw new RuntimeException("Failed to get a list of camera devices", e);
+        } finally {
+            CameraTrace.endSection();
         }
     }
 
@@ -576,25 +1235,44 @@ import timber.log.Timber;
      * <p>This rewrites {@link #mPreviewSizes}, {@link #mOutputSizes}
      */
     private void collectCameraInfo() {
-        StreamConfigurationMap map = mCameraCharacteristics.get(
-                CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-        if (map == null) {
-            throw new IllegalStateException("Failed to get configuration map: " + mCameraId);
-        }
-        mPreviewSizes.clear();
-        for (android.util.Size size : map.getOutputSizes(SurfaceTexture.class)) {
-            int width = size.getWidth();
-            int height = size.getHeight();
-            if (width <= MAX_PREVIEW_WIDTH && height <= MAX_PREVIEW_HEIGHT) {
-                mPreviewSizes.add(new Size(width, height));
+        CameraTrace.beginSection(CameraTrace.COLLECT_CAMERA_INFO);
+        try {
+            Integer timestampSource = mCameraCharacteristics.get(
+                    CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            mRealtimeTimestamps = timestampSource != null &&
+                    timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+            StreamConfigurationMap map = mCameraCharacteristics.get(
+                    CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            if (map == null) {
+                throw new IllegalStateException("Failed to get configuration map: " + mCameraId);
             }
-        }
-        mOutputSizes.clear();
-        collectOutputSizes(map);
-        for (AspectRatio ratio : mPreviewSizes.ratios()) {
-            if (!mOutputSizes.ratios().contains(ratio)) {
-                mPreviewSizes.remove(ratio);
+            StreamConfigurationMap previous = mStreamConfigurations.put(mCameraId, map);
+            if (previous != null && !previous.equals(map)) {
+                Timber.d("Stream configuration of camera %s changed, forgetting chosen sizes", mCameraId);
+                mSizeDecisions.clear();
             }
+            mHighSpeed = mHighSpeedVideoModeRequested && collectHighSpeedSizes(map);
+            if (mHighSpeed) {
+                mSnapshotSizes.clear();
+                return;
+            }
+            mPreviewSizes.clear();
+            for (android.util.Size size : map.getOutputSizes(SurfaceTexture.class)) {
+                int width = size.getWidth();
+                int height = size.getHeight();
+                if (width <= MAX_PREVIEW_WIDTH && height <= MAX_PREVIEW_HEIGHT) {
+                    mPreviewSizes.add(new Size(width, height));
+                }
+            }
+            mOutputSizes.clear();
+            collectOutputSizes(map);
+            for (AspectRatio ratio : mPreviewSizes.ratios()) {
+                if (!mOutputSizes.containsRatio(ratio)) {
+                    mPreviewSizes.remove(ratio);
+                }
+            }
+        } finally {
+            CameraTrace.endSection();
         }
     }
 
@@ -604,40 +1282,257 @@ import timber.log.Timber;
         for (android.util.Size size : sizes) {
             mOutputSizes.add(new Size(size.getWidth(), size.getHeight()));
         }
+        mSnapshotSizes.clear();
+        if (mVideoMode) {
+            for (android.util.Size size : map.getOutputSizes(ImageFormat.JPEG)) {
+                mSnapshotSizes.add(new Size(size.getWidth(), size.getHeight()));
+            }
+        }
+    }
+
+    /**
+     * Fills {@link #mPreviewSizes}, {@link #mOutputSizes} and {@link #mHighSpeedFpsRanges} with the
+     * high speed video sizes that can run at {@link #mVideoFrameRate}. Preview and recording share
+     * these sizes, since all outputs of a constrained high speed session must be the same size.
+     *
+     * @return {@code false} if the camera has no such size, in which case regular video mode is
+     * used.
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private boolean collectHighSpeedSizes(StreamConfigurationMap map) {
+        mHighSpeedFpsRanges.clear();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M || !isHighSpeedVideoSupported()) {
+            Timber.w("Camera %s doesn't support high speed video, using regular video mode", mCameraId);
+            return false;
+        }
+        mPreviewSizes.clear();
+        mOutputSizes.clear();
+        for (android.util.Size size : map.getHighSpeedVideoSizes()) {
+            Range<Integer>[] ranges = map.getHighSpeedVideoFpsRangesFor(size);
+            if (!containsUpperBound(ranges, mVideoFrameRate)) {
+                continue;
+            }
+            Size highSpeedSize = new Size(size.getWidth(), size.getHeight());
+            mPreviewSizes.add(highSpeedSize);
+            mOutputSizes.add(highSpeedSize);
+            mHighSpeedFpsRanges.put(highSpeedSize, ranges);
+        }
+        if (mHighSpeedFpsRanges.isEmpty()) {
+            Timber.w("Camera %s has no high speed video size for %d fps, using regular video mode",
+                     mCameraId, mVideoFrameRate);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isHighSpeedVideoSupported() {
+        int[] capabilities = mCameraCharacteristics.get(
+                CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        if (capabilities == null) {
+            return false;
+        }
+        for (int capability : capabilities) {
+            if (capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsUpperBound(Range<Integer>[] ranges, int fps) {
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() == fps) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void prepareImageReader(AspectRatio aspectRatio) {
+        SizeDecisionCache.Key key = newSizeDecisionKey(SizeDecisionCache.OUTPUT_PICTURE);
+        Size size = mSizeDecisions.get(key);
+        if (size == null) {
+            size = mPictureSizeSelector.select(mOutputSizes, aspectRatio, 0, 0, 0);
+            if (size == null) {
+                size = mOutputSizes.largest();
+            }
+            mSizeDecisions.put(key, size);
+        }
+        Timber.d("Image output size selected: %s, ratio: %s", size, size.getAspectRatio());
+        prepareImageReader(size);
+    }
+
+    /**
+     * Prepares {@link #mImageReader} for video snapshots, with the largest JPEG size of the
+     * recording aspect ratio that doesn't exceed the recording size; bigger snapshots aren't
+     * guaranteed to be supported alongside a recording stream.
+     *
+     * @return {@code false} if there is no such size and snapshots aren't available.
+     */
+    private boolean prepareSnapshotImageReader(Size videoSize) {
+        long packed = mSnapshotSizes.largestAtMost(videoSize.getAspectRatio(),
+                                                   videoSize.getWidth(), videoSize.getHeight());
+        if (packed == SizeMap.NONE) {
+            Timber.w("No video snapshot size available for recording size %s", videoSize);
+            closeImageReader();
+            return false;
+        }
+        Size snapshotSize = SizeMap.unpack(packed);
+        Timber.d("Video snapshot size selected: %s, ratio: %s", snapshotSize, snapshotSize.getAspectRatio());
+        prepareImageReader(snapshotSize);
+        return true;
+    }
+
+    private void prepareImageReader(Size size) {
+        closeImageReader();
+        mImageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.JPEG,
+                                               MAX_IMAGES);
+        Timber.d("Image reader for %s can use up to %d bytes", size, getImageReaderMemoryBytes());
+        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, null);
+    }
+
+    private void closeImageReader() {
         if (mImageReader != null) {
             mImageReader.close();
+            mImageReader = null;
+        }
+    }
+
+    /**
+     * Closes the video snapshot reader once recording stops, so its buffers of up to the
+     * recording size aren't kept until the session is torn down. Snapshots can only be taken
+     * while recording.
+     */
+    private void closeSnapshotImageReader() {
+        if (mVideoMode) {
+            closeImageReader();
         }
-        Size largest = mOutputSizes.sizes(aspectRatio).last();
-        Timber.d("Image output size selected: %s, ratio: %s", largest, largest.getAspectRatio());
-        mImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(), ImageFormat.JPEG, 2);
-        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, null);
     }
 
     private void prepareMediaRecorder() throws IOException {
-        if (mMediaRecorder == null) {
-            mMediaRecorder = new MediaRecorder();
-        } else {
-            mMediaRecorder.reset();
+        CameraTrace.beginSection(CameraTrace.PREPARE_MEDIA_RECORDER);
+        try {
+            if (mEncodedFrameSink != null) {
+                prepareCodecRecorder();
+                return;
+            }
+            if (mMediaRecorder == null) {
+                mMediaRecorder = new MediaRecorder();
+            } else {
+                mMediaRecorder.reset();
+            }
+
+            Size videoSize = chooseRecordingSize();
+            mVideoSize = videoSize;
+            Timber.d("Video output size selected: %s, ratio: %s ", videoSize, videoSize.getAspectRatio());
+
+            mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+            mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+            mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
+            mMediaRecorder.setOutputFile(mVideoFilePath);
+            mMediaRecorder.setVideoEncodingBitRate(
+                    Math.max(1, (int) (chooseVideoBitRate(videoSize) * mVideoEncodingBitRateScale)));
+            mMediaRecorder.setVideoFrameRate(mVideoFrameRate);
+            mMediaRecorder.setVideoSize(videoSize.getWidth(), videoSize.getHeight());
+            mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
+            mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+            mMediaRecorder.setOrientationHint(getCameraOrientation());
+            mMediaRecorder.prepare();
+        } finally {
+            CameraTrace.endSection();
+        }
+    }
+
+    /**
+     * Prepares the {@link CodecRecorder} used instead of {@link #mMediaRecorder} while an
+     * {@link EncodedFrameSink} is set.
+     */
+    private void prepareCodecRecorder() throws IOException {
+        releaseCodecRecorder();
+        Size videoSize = chooseRecordingSize();
+        mVideoSize = videoSize;
+        Timber.d("Encoder output size selected: %s, ratio: %s ", videoSize, videoSize.getAspectRatio());
+
+        mCodecRecorder = new CodecRecorder(mEncodedFrameSink);
+        mCodecRecorder.setBitRateScale(mVideoEncodingBitRateScale);
+        try {
+            mCodecRecorder.prepare(mVideoFilePath, videoSize.getWidth(), videoSize.getHeight(),
+                                   chooseVideoBitRate(videoSize), mVideoFrameRate, getCameraOrientation());
+        } catch (IOException | RuntimeException e) {
+            releaseCodecRecorder();
+            throw e;
+        }
+    }
+
+    /**
+     * Computes the video bit rate for {@code videoSize} according to {@link #mVideoBitRateStrategy}.
+     */
+    private int chooseVideoBitRate(Size videoSize) {
+        int bitRate;
+        switch (mVideoBitRateStrategy) {
+            case Constants.VIDEO_BIT_RATE_CAMCORDER_PROFILE:
+                bitRate = getCamcorderProfileBitRate(videoSize);
+                if (bitRate <= 0) {
+                    bitRate = mVideoEncodingBitRate;
+                }
+                break;
+            case Constants.VIDEO_BIT_RATE_BITS_PER_PIXEL:
+                bitRate = VideoBitRates.fromBitsPerPixel(videoSize.getWidth(), videoSize.getHeight(),
+                                                         mVideoFrameRate, mVideoBitsPerPixel);
+                break;
+            case Constants.VIDEO_BIT_RATE_BYTES_PER_MINUTE:
+                bitRate = VideoBitRates.fromBytesPerMinute(mVideoBytesPerMinute);
+                break;
+            default:
+                bitRate = mVideoEncodingBitRate;
+                break;
+        }
+        Timber.d("Video bit rate selected: %d for %s at %d fps", bitRate, videoSize, mVideoFrameRate);
+        return bitRate;
+    }
+
+    /**
+     * @return The bit rate of the camcorder profile closest in size to {@code videoSize}, scaled to
+     * it, or 0 if the camera has no profile.
+     */
+    private int getCamcorderProfileBitRate(Size videoSize) {
+        int cameraId;
+        try {
+            cameraId = Integer.parseInt(mCameraId);
+        } catch (NumberFormatException e) {
+            return 0;
         }
+        CamcorderProfile closest = null;
+        long closestDistance = Long.MAX_VALUE;
+        for (int quality : CAMCORDER_QUALITIES) {
+            if (!CamcorderProfile.hasProfile(cameraId, quality)) {
+                continue;
+            }
+            CamcorderProfile profile = CamcorderProfile.get(cameraId, quality);
+            long distance = Math.abs((long) profile.videoFrameWidth * profile.videoFrameHeight
+                                             - videoSize.getArea());
+            if (distance < closestDistance) {
+                closest = profile;
+                closestDistance = distance;
+            }
+        }
+        if (closest == null) {
+            return 0;
+        }
+        return VideoBitRates.scale(closest.videoBitRate, closest.videoFrameWidth,
+                                   closest.videoFrameHeight, closest.videoFrameRate,
+                                   videoSize.getWidth(), videoSize.getHeight(), mVideoFrameRate);
+    }
 
-        Size minVideoSize = new Size(mMinVideoWidth, mMinVideoHeight);
-        Size videoSize = chooseVideoSize(minVideoSize, mSelectPreviewSize);
-        Timber.d("Video output size selected: %s, ratio: %s ", videoSize, videoSize.getAspectRatio());
+    private void releaseCodecRecorder() {
+        if (mCodecRecorder != null) {
+            mCodecRecorder.release();
+            mCodecRecorder = null;
+        }
+    }
 
-        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-        mMediaRecorder.setOutputFile(mVideoFilePath);
-        mMediaRecorder.setVideoEncodingBitRate(mVideoEncodingBitRate);
-        mMediaRecorder.setVideoFrameRate(mVideoFrameRate);
-        mMediaRecorder.setVideoSize(videoSize.getWidth(), videoSize.getHeight());
-        mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-        mMediaRecorder.setOrientationHint(getCameraOrientation());
-        mMediaRecorder.prepare();
+    private Surface getRecorderSurface() {
+        return mCodecRecorder != null ? mCodecRecorder.getSurface() : mMediaRecorder.getSurface();
     }
 
     /**
@@ -647,6 +1542,10 @@ import timber.log.Timber;
      */
     private void startOpeningCamera() {
         try {
+            mark(CameraMetrics.EVENT_OPEN_REQUESTED);
+            logEvent(CameraEventLog.OPEN_REQUESTED, 0, 0);
+            CameraTrace.beginAsync(CameraTrace.OPEN_CAMERA);
+            mAwaitingFirstFrame = true;
             mCameraManager.openCamera(mCameraId, mCameraDeviceCallback, null);
         } catch (CameraAccessException e) {
             throw new RuntimeException("Failed to open camera: " + mCameraId, e);
@@ -676,48 +1575,125 @@ import timber.log.Timber;
             List<Surface> outputs = new ArrayList<>();
             if (mStartVideoRecording) {
                 mPreviewRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
-                mPreviewRequestBuilder.addTarget(mMediaRecorder.getSurface());
-                outputs.add(mMediaRecorder.getSurface());
+                Surface recorderSurface = getRecorderSurface();
+                mPreviewRequestBuilder.addTarget(recorderSurface);
+                outputs.add(recorderSurface);
+                // The snapshot reader is only an output of the session, not a repeating target
+                if (!mHighSpeed && prepareSnapshotImageReader(mVideoSize)) {
+                    outputs.add(mImageReader.getSurface());
+                }
             } else {
                 mPreviewRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
                 if (!mVideoMode) {
                     prepareImageReader(mSelectPreviewSize.getAspectRatio());
                     outputs.add(mImageReader.getSurface());
+                } else {
+                    // No pictures are taken until recording starts
+                    closeImageReader();
                 }
             }
 
-            Surface surface = new Surface(mSurfaceInfo.surface);
-            outputs.add(surface);
-            mPreviewRequestBuilder.addTarget(surface);
+            mPreviewSurface = new Surface(mSurfaceInfo.surface);
+            outputs.add(mPreviewSurface);
+            mPreviewRequestBuilder.addTarget(mPreviewSurface);
+            updateAeTargetFpsRange();
 
-            mCamera.createCaptureSession(outputs, mSessionCallback, mBackgroundHandler);
+            mark(CameraMetrics.EVENT_SESSION_REQUESTED);
+            logEvent(CameraEventLog.SESSION_REQUESTED, 0, 0);
+            CameraTrace.beginAsync(CameraTrace.CONFIGURE_SESSION);
+            if (mHighSpeed) {
+                createHighSpeedCaptureSession(outputs);
+            } else {
+                mCamera.createCaptureSession(outputs, mSessionCallback, mBackgroundHandler);
+            }
         } catch (CameraAccessException e) {
             throw new RuntimeException("Failed to start capture session for mode " + (mVideoMode ? "video" : "picture"), e);
         }
     }
 
-    private Size chooseVideoSize(Size minVideoSize, Size currentPreviewSize) {
-        SortedSet<Size> bestSizes = mOutputSizes.sizes(currentPreviewSize.getAspectRatio());
-        List<Size> bigEnough = new ArrayList<>();
-        for (Size option : bestSizes) {
-            if (option.getWidth() >= minVideoSize.getWidth() && option.getHeight() >= minVideoSize.getHeight()) {
-                bigEnough.add(option);
-            }
-        }
+    @TargetApi(Build.VERSION_CODES.M)
+    private void createHighSpeedCaptureSession(List<Surface> outputs) throws CameraAccessException {
+        mCamera.createConstrainedHighSpeedCaptureSession(outputs, mSessionCallback, mBackgroundHandler);
+    }
 
-        if (bigEnough.size() > 0) {
-            return Collections.min(bigEnough, new Comparator<Size>() {
-                @Override
-                public int compare(Size size1, Size size2) {
-                    return Long.compare(size1.getArea(), size2.getArea());
-                }
-            });
+    /**
+     * Submits {@link #mPreviewRequestBuilder} as the repeating request, as a burst of high speed
+     * requests for constrained high speed sessions.
+     * <p>
+     * Preview frames only go through {@link #mCaptureCallback} while a picture is being taken,
+     * when its state machine follows the AF and AE states. Otherwise they go through
+     * {@link #mPreviewCallback} while focusing on a point, with the latency capture policy,
+     * while detecting faces or publishing frame metadata, and have no callback when none of
+     * these is needed.
+     */
+    private void setRepeatingPreviewRequest() throws CameraAccessException {
+        CameraCaptureSession.CaptureCallback callback;
+        if (mCaptureCallback.getState() != PictureCaptureCallback.STATE_PREVIEW) {
+            callback = mCaptureCallback;
+        } else if (mFocusStartedAtNs != 0 ||
+                mCapturePolicy == Constants.CAPTURE_POLICY_LATENCY ||
+                mFaceDetectMode != CaptureRequest.STATISTICS_FACE_DETECT_MODE_OFF ||
+                mFrameMetadataEnabled) {
+            callback = mPreviewCallback;
+        } else {
+            callback = null;
+        }
+        logEvent(CameraEventLog.REPEATING_REQUEST, callback == mCaptureCallback
+                ? CameraEventLog.CALLBACK_PICTURE : callback == mPreviewCallback
+                ? CameraEventLog.CALLBACK_PREVIEW : CameraEventLog.CALLBACK_NONE, 0);
+        if (mHighSpeed) {
+            setRepeatingHighSpeedRequest(mPreviewRequestBuilder.build(), callback);
         } else {
-            Size fallback = bestSizes.last();
+            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), callback, null);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setRepeatingHighSpeedRequest(CaptureRequest request,
+                                              @Nullable CameraCaptureSession.CaptureCallback callback)
+            throws CameraAccessException {
+        CameraConstrainedHighSpeedCaptureSession session =
+                (CameraConstrainedHighSpeedCaptureSession) mCaptureSession;
+        session.setRepeatingBurst(session.createHighSpeedRequestList(request), callback, null);
+    }
+
+    private Size chooseRecordingSize() {
+        if (mHighSpeed) {
+            // All outputs of a constrained high speed session must have the same size
+            return mSelectPreviewSize;
+        }
+        SizeDecisionCache.Key key = newSizeDecisionKey(SizeDecisionCache.OUTPUT_VIDEO);
+        Size size = mSizeDecisions.get(key);
+        if (size == null) {
+            Size minVideoSize = new Size(mMinVideoWidth, mMinVideoHeight);
+            size = chooseVideoSize(minVideoSize, mSelectPreviewSize);
+            mSizeDecisions.put(key, size);
+        }
+        return size;
+    }
+
+    /**
+     * Everything the chosen sizes depend on for the current camera, apart from its stream
+     * configuration and the selectors, which clear {@link #mSizeDecisions} when they change.
+     * The picture and video sizes follow from the preview size, itself chosen from these.
+     */
+    private SizeDecisionCache.Key newSizeDecisionKey(int output) {
+        int mode = mHighSpeed ? SizeDecisionCache.MODE_HIGH_SPEED_VIDEO
+                : mVideoMode ? SizeDecisionCache.MODE_VIDEO : SizeDecisionCache.MODE_PICTURE;
+        return new SizeDecisionCache.Key(mCameraId, output, mode, mSurfaceInfo.width,
+                                         mSurfaceInfo.height, getCameraOrientation(),
+                                         mMinVideoWidth, mMinVideoHeight, mVideoFrameRate);
+    }
+
+    private Size chooseVideoSize(Size minVideoSize, Size currentPreviewSize) {
+        Size size = mVideoSizeSelector.select(mOutputSizes, currentPreviewSize.getAspectRatio(),
+                                              minVideoSize.getWidth(), minVideoSize.getHeight(), 0);
+        if (size == null) {
+            size = mOutputSizes.largest();
             Timber.e("Couldn't find any suitable video recording size - falling back to %s with ratio %s",
-                     fallback, fallback.getAspectRatio());
-            return fallback;
+                     size, size.getAspectRatio());
         }
+        return size;
     }
 
     /**
@@ -726,36 +1702,24 @@ import timber.log.Timber;
      * @return The picked size for camera preview.
      */
     private Size chooseOptimalSize() {
-        int surfaceWidth = mSurfaceInfo.width;
-        int surfaceHeight = mSurfaceInfo.height;
-        int cameraOrientation = getCameraOrientation();
-        // Flip with height around depending on camera orientation
-        if (cameraOrientation == 90 || cameraOrientation == 270) {
-            Timber.d("Flipping surface width and height because camera orientation is 90 or 270");
-            surfaceWidth = mSurfaceInfo.height;
-            surfaceHeight = mSurfaceInfo.width;
+        SizeDecisionCache.Key key = newSizeDecisionKey(SizeDecisionCache.OUTPUT_PREVIEW);
+        Size size = mSizeDecisions.get(key);
+        if (size == null) {
+            size = selectPreviewSize();
+            mSizeDecisions.put(key, size);
         }
+        return size;
+    }
 
-        AspectRatio surfaceRatio = AspectRatio.of(surfaceWidth, surfaceHeight);
-
-        List<Size> bigEnough = new ArrayList<>();
-        List<AspectRatio> ratiosSorted = mPreviewSizes.ratiosSortedByClosest(surfaceRatio);
-
-        for (AspectRatio ratio : ratiosSorted) {
-            Timber.d("Choosing optimal size, trying with ratio %s, surface ratio is %s", ratio, surfaceRatio);
-            for (Size size : mPreviewSizes.sizes(ratio)) {
-                if (size.getWidth() >= surfaceWidth && size.getHeight() >= surfaceHeight) {
-                    bigEnough.add(size);
-                }
-            }
-
-            if (!bigEnough.isEmpty()) {
-                Size size = Collections.min(bigEnough);
-                Timber.d("Selected preview size %s with ratio %s", size, ratio);
-                return size;
-            }
-
-            Timber.d("Not preview size available for ratio " + ratio);
+    private Size selectPreviewSize() {
+        // The selector flips the surface around depending on camera orientation
+        AspectRatio surfaceRatio = AspectRatio.of(mSurfaceInfo.width, mSurfaceInfo.height);
+        Size size = mPreviewSizeSelector.select(mPreviewSizes, surfaceRatio, mSurfaceInfo.width,
+                                                mSurfaceInfo.height, getCameraOrientation());
+        if (size != null) {
+            Timber.d("Selected preview size %s with ratio %s, surface ratio is %s",
+                     size, size.getAspectRatio(), surfaceRatio);
+            return size;
         }
 
         Size largest = mPreviewSizes.largest();
@@ -766,81 +1730,188 @@ import timber.log.Timber;
 
     /**
      * Configures the transform matrix for TextureView based on {@link #mDisplayOrientation} and
-     * {@link #mSurfaceInfo}.
+     * {@link #mSurfaceInfo}, unless it was already configured for the same inputs.
      */
     private void configureTransform(Size previewSize) {
-        Matrix matrix = new Matrix();
-        boolean isLandscape = mDisplayOrientation % 180 == 90;
-        if (isLandscape) {
-            // Rotate the camera preview when the screen is landscape.
-            matrix.setPolyToPoly(
-                    new float[]{
-                            0.f, 0.f, // top left
-                            mSurfaceInfo.width, 0.f, // top right
-                            0.f, mSurfaceInfo.height, // bottom left
-                            mSurfaceInfo.width, mSurfaceInfo.height, // bottom right
-                    }, 0,
-                    mDisplayOrientation == 90 ?
-                            // Clockwise
-                            new float[]{
-                                    0.f, mSurfaceInfo.height, // top left
-                                    0.f, 0.f, // top right
-                                    mSurfaceInfo.width, mSurfaceInfo.height, // bottom left
-                                    mSurfaceInfo.width, 0.f, // bottom right
-                            }
-                            : // mDisplayOrientation == 270
-                            // Counter-clockwise
-                            new float[]{
-                                    mSurfaceInfo.width, 0.f, // top left
-                                    mSurfaceInfo.width, mSurfaceInfo.height, // top right
-                                    0.f, 0.f, // bottom left
-                                    0.f, mSurfaceInfo.height, // bottom right
-                            }, 0,
-                    4);
+        int cameraOrientation = getCameraOrientation();
+        if (previewSize.getWidth() == mTransformPreviewWidth &&
+                previewSize.getHeight() == mTransformPreviewHeight &&
+                mSurfaceInfo.width == mTransformSurfaceWidth &&
+                mSurfaceInfo.height == mTransformSurfaceHeight &&
+                cameraOrientation == mTransformCameraOrientation) {
+            return;
         }
+        mTransformPreviewWidth = previewSize.getWidth();
+        mTransformPreviewHeight = previewSize.getHeight();
+        mTransformSurfaceWidth = mSurfaceInfo.width;
+        mTransformSurfaceHeight = mSurfaceInfo.height;
+        mTransformCameraOrientation = cameraOrientation;
 
         // If the aspect ratio of the TextureView surface doesn't match the ratio, we need to crop the surface view
         // so that the preview doesn't look stretched or squashed.
-        int previewWidth = previewSize.getWidth();
-        int previewHeight = previewSize.getHeight();
+        PreviewTransform.compute(mSurfaceInfo.width, mSurfaceInfo.height, previewSize.getWidth(),
+                                 previewSize.getHeight(), cameraOrientation, mTransformValues);
+        mTransformMatrix.setValues(mTransformValues);
+        mCallback.onTransformUpdated(mTransformMatrix);
+    }
+
+    /**
+     * Updates the internal state of auto-focus to {@link #mAutoFocus}. The regions set by
+     * {@link #focusAt(float, float)} are dropped, so focus and metering go back to the camera's
+     * default of the whole frame.
+     */
+    private void updateAutoFocus() {
+        int afMode = CaptureRequest.CONTROL_AF_MODE_OFF;
+        if (mAutoFocus) {
+            afMode = FocusModeSelector.getBestAfMode(mCameraCharacteristics);
+        }
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, afMode);
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_REGIONS, null);
+        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_REGIONS, null);
+    }
+
+    /**
+     * Updates the face detect mode to {@link #mFaceDetection}, picking the most detailed mode
+     * the camera supports. Constrained high speed sessions don't detect faces.
+     */
+    private void updateFaceDetection() {
+        mFaceDetectMode = CaptureRequest.STATISTICS_FACE_DETECT_MODE_OFF;
+        if (mFaceDetection && !mHighSpeed) {
+            int[] modes = mCameraCharacteristics.get(
+                    CameraCharacteristics.STATISTICS_INFO_AVAILABLE_FACE_DETECT_MODES);
+            if (modes != null) {
+                // The modes are ordered by detail: off, simple, then full
+                for (int mode : modes) {
+                    mFaceDetectMode = Math.max(mFaceDetectMode, mode);
+                }
+            }
+        }
+        mFacesDispatchedAtNs = 0;
+        mPreviewRequestBuilder.set(CaptureRequest.STATISTICS_FACE_DETECT_MODE, mFaceDetectMode);
+    }
+
+    /**
+     * Maps the faces of a preview frame to the view and dispatches them, when their number
+     * changed or {@link #MIN_FACES_INTERVAL_NS} passed since the last update.
+     */
+    private void dispatchFaces(CaptureResult result) {
+        Face[] faces = result.get(CaptureResult.STATISTICS_FACES);
+        int count = faces == null ? 0 : faces.length;
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (count == mFaces.size() && (count == 0 || timestamp == null ||
+                timestamp - mFacesDispatchedAtNs < MIN_FACES_INTERVAL_NS)) {
+            return;
+        }
+        if (!computePreviewCrop(result.get(CaptureResult.SCALER_CROP_REGION), mFaceCrop)) {
+            return;
+        }
         int cameraOrientation = getCameraOrientation();
-        if (cameraOrientation == 270 || cameraOrientation == 90) {
-            previewWidth = previewSize.getHeight();
-            previewHeight = previewSize.getWidth();
+        boolean mirrored = mFacing == Constants.FACING_FRONT;
+        mFaces.clear();
+        for (int i = 0; i < count; i++) {
+            Rect face = faces[i].getBounds();
+            if (face.right <= mFaceCrop[0] || face.left >= mFaceCrop[2] ||
+                    face.bottom <= mFaceCrop[1] || face.top >= mFaceCrop[3]) {
+                // Detected on the sensor, but out of the preview
+                continue;
+            }
+            if (mFaces.size() == mFaceBoundsPool.size()) {
+                mFaceBoundsPool.add(new RectF());
+            }
+            RectF bounds = mFaceBoundsPool.get(mFaces.size());
+            mapSensorPoint(face.left, face.top, cameraOrientation, mirrored);
+            bounds.set(mFacePoint[0], mFacePoint[1], mFacePoint[0], mFacePoint[1]);
+            // Rotation and mirroring may swap the corners
+            mapSensorPoint(face.right, face.bottom, cameraOrientation, mirrored);
+            bounds.union(mFacePoint[0], mFacePoint[1]);
+            mFaces.add(bounds);
         }
+        mFacesDispatchedAtNs = timestamp != null ? timestamp : 0;
+        mCallback.onFacesDetected(mFaces);
+    }
 
-        float ratioSurface = (float) mSurfaceInfo.width / mSurfaceInfo.height;
-        float ratioPreview = (float) previewWidth / previewHeight;
+    /**
+     * Publishes the metadata of a preview frame to {@link #mFrameMetadata}.
+     */
+    private void publishFrameMetadata(CaptureResult result) {
+        Float focusDistance = result.get(CaptureResult.LENS_FOCUS_DISTANCE);
+        mFrameMetadata.publish(result.getFrameNumber(),
+                               valueOf(result.get(CaptureResult.SENSOR_TIMESTAMP)),
+                               valueOf(result.get(CaptureResult.SENSOR_EXPOSURE_TIME)),
+                               valueOf(result.get(CaptureResult.SENSOR_FRAME_DURATION)),
+                               valueOf(result.get(CaptureResult.SENSOR_SENSITIVITY)),
+                               valueOf(result.get(CaptureResult.LENS_STATE)),
+                               focusDistance == null ? FrameMetadata.UNKNOWN : focusDistance,
+                               valueOf(result.get(CaptureResult.CONTROL_AF_STATE)),
+                               valueOf(result.get(CaptureResult.CONTROL_AE_STATE)));
+    }
 
-        float scaleX;
-        float scaleY;
+    private static long valueOf(Long value) {
+        return value == null ? FrameMetadata.UNKNOWN : value;
+    }
 
-        if (ratioPreview < ratioSurface) {
-            scaleX = 1;
-            scaleY = (float) previewHeight / mSurfaceInfo.height;
-        } else {
-            scaleX = (float) previewWidth / mSurfaceInfo.width;
-            scaleY = 1;
-        }
-        matrix.setScale(scaleX, scaleY);
+    private static int valueOf(Integer value) {
+        return value == null ? FrameMetadata.UNKNOWN : value;
+    }
 
-        // If we scaled we also have to translate so that the preview is centered
-        float translateX = scaleX != 1 ? (((mSurfaceInfo.width * scaleX) - mSurfaceInfo.width) / 2) * -1 : 0;
-        float translateY = scaleY != 1 ? (((mSurfaceInfo.height * scaleY) - mSurfaceInfo.height) / 2) * -1 : 0;
-        matrix.postTranslate(translateX, translateY);
+    /**
+     * Maps a point of the active array to the view, into {@link #mFacePoint}. Points out of the
+     * preview stream's crop {@link #mFaceCrop} are moved to its edge.
+     */
+    private void mapSensorPoint(int x, int y, int cameraOrientation, boolean mirrored) {
+        float streamX = (float) (x - mFaceCrop[0]) / (mFaceCrop[2] - mFaceCrop[0]);
+        float streamY = (float) (y - mFaceCrop[1]) / (mFaceCrop[3] - mFaceCrop[1]);
+        FocusRegions.sensorToView(Math.max(0, Math.min(1, streamX)),
+                                  Math.max(0, Math.min(1, streamY)), mSurfaceInfo.width,
+                                  mSurfaceInfo.height, mTransformValues, cameraOrientation,
+                                  mirrored, mFacePoint);
+    }
 
-        mCallback.onTransformUpdated(matrix);
+    /**
+     * Computes the part of the active array the preview stream shows, into {@code out}.
+     *
+     * @param cropRegion The crop region of the preview, or {@code null} for the whole active
+     *                   array.
+     * @return {@code false} if the active array or the preview size isn't known.
+     */
+    private boolean computePreviewCrop(@Nullable Rect cropRegion, int[] out) {
+        Rect activeArray = mCameraCharacteristics.get(
+                CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+        Size previewSize = mSelectPreviewSize;
+        if (activeArray == null || previewSize == null) {
+            return false;
+        }
+        // Regions and crop regions are relative to the top left of the active array
+        if (cropRegion != null) {
+            FocusRegions.streamCrop(cropRegion.left, cropRegion.top, cropRegion.right,
+                                    cropRegion.bottom, previewSize.getWidth(),
+                                    previewSize.getHeight(), out);
+        } else {
+            FocusRegions.streamCrop(0, 0, activeArray.width(), activeArray.height(),
+                                    previewSize.getWidth(), previewSize.getHeight(), out);
+        }
+        return true;
     }
 
     /**
-     * Updates the internal state of auto-focus to {@link #mAutoFocus}.
+     * Picks the AE target FPS range for {@link #mVideoFrameRate}: fixed while recording, and as
+     * wide as possible for preview.
      */
-    private void updateAutoFocus() {
-        int afMode = CaptureRequest.CONTROL_AF_MODE_OFF;
-        if (mAutoFocus) {
-            afMode = FocusModeSelector.getBestAfMode(mCameraCharacteristics);
+    private void updateAeTargetFpsRange() {
+        if (mHighSpeed) {
+            Range<Integer>[] ranges = mHighSpeedFpsRanges.get(mSelectPreviewSize);
+            mAeTargetFpsRange = mStartVideoRecording
+                    ? FpsRangeSelector.getBestRecordingRange(ranges, mVideoFrameRate)
+                    : FpsRangeSelector.getBestPreviewRange(ranges, mVideoFrameRate);
+        } else {
+            mAeTargetFpsRange = mStartVideoRecording
+                    ? FpsRangeSelector.getBestRecordingRange(mCameraCharacteristics, mVideoFrameRate)
+                    : FpsRangeSelector.getBestPreviewRange(mCameraCharacteristics, mVideoFrameRate);
+        }
+        Timber.d("AE target FPS range selected: %s", mAeTargetFpsRange);
+        if (mAeTargetFpsRange != null) {
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mAeTargetFpsRange);
         }
-        mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, afMode);
     }
 
     /**
@@ -889,7 +1960,12 @@ import timber.log.Timber;
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                                        CaptureRequest.CONTROL_AF_TRIGGER_START);
             mCaptureCallback.setState(PictureCaptureCallback.STATE_LOCKING);
+            logEvent(CameraEventLog.CAPTURE_REQUEST, CameraEventLog.REQUEST_LOCK_FOCUS, 0);
             mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            // Follow the AF state in the preview frames until the picture is taken
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                                       CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+            setRepeatingPreviewRequest();
         } catch (CameraAccessException e) {
             Timber.e(e, "Failed to lock focus.");
         }
@@ -935,12 +2011,16 @@ import timber.log.Timber;
             captureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, getCameraOrientation());
             // Stop preview and capture a still picture.
             mCaptureSession.stopRepeating();
+            logEvent(CameraEventLog.CAPTURE_REQUEST, CameraEventLog.REQUEST_STILL, 0);
+            CameraTrace.beginAsync(CameraTrace.CAPTURE_STILL);
             mCaptureSession.capture(captureRequestBuilder.build(),
                                     new CameraCaptureSession.CaptureCallback() {
                                         @Override
                                         public void onCaptureCompleted(@NonNull CameraCaptureSession session,
                                                                        @NonNull CaptureRequest request,
                                                                        @NonNull TotalCaptureResult result) {
+                                            mark(CameraMetrics.EVENT_CAPTURE_COMPLETED);
+                                            CameraTrace.endAsync(CameraTrace.CAPTURE_STILL);
                                             unlockFocus();
                                         }
                                     }, null);
@@ -949,6 +2029,52 @@ import timber.log.Timber;
         }
     }
 
+    /**
+     * Captures a still picture while recording, without interrupting the repeating request. The
+     * snapshot request also targets the preview and recorder surfaces, so neither of them misses
+     * the frame.
+     */
+    private void captureVideoSnapshot() {
+        try {
+            CaptureRequest.Builder snapshotRequestBuilder = mCamera.createCaptureRequest(
+                    CameraDevice.TEMPLATE_VIDEO_SNAPSHOT);
+            snapshotRequestBuilder.addTarget(mImageReader.getSurface());
+            snapshotRequestBuilder.addTarget(mPreviewSurface);
+            snapshotRequestBuilder.addTarget(getRecorderSurface());
+            snapshotRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE,
+                                       mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AF_MODE));
+            snapshotRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE,
+                                       mPreviewRequestBuilder.get(CaptureRequest.CONTROL_AE_MODE));
+            snapshotRequestBuilder.set(CaptureRequest.FLASH_MODE,
+                                       mPreviewRequestBuilder.get(CaptureRequest.FLASH_MODE));
+            if (mAeTargetFpsRange != null) {
+                snapshotRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mAeTargetFpsRange);
+            }
+            snapshotRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, getCameraOrientation());
+            logEvent(CameraEventLog.CAPTURE_REQUEST, CameraEventLog.REQUEST_VIDEO_SNAPSHOT, 0);
+            mCaptureSession.capture(snapshotRequestBuilder.build(),
+                                    new CameraCaptureSession.CaptureCallback() {
+                                        @Override
+                                        public void onCaptureCompleted(
+                                                @NonNull CameraCaptureSession session,
+                                                @NonNull CaptureRequest request,
+                                                @NonNull TotalCaptureResult result) {
+                                            mark(CameraMetrics.EVENT_CAPTURE_COMPLETED);
+                                        }
+                                    }, null);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Timber.e(e, "Cannot capture a video snapshot.");
+        }
+    }
+
+    private void mark(int event) {
+        mMetrics.mark(event, SystemClock.elapsedRealtimeNanos());
+    }
+
+    private void logEvent(int type, int argument1, int argument2) {
+        mEventLog.log(type, SystemClock.elapsedRealtimeNanos(), argument1, argument2);
+    }
+
     private int getCameraOrientation() {
         @SuppressWarnings("ConstantConditions")
         int sensorOrientation = mCameraCharacteristics.get(
@@ -964,14 +2090,14 @@ import timber.log.Timber;
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                                    CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            logEvent(CameraEventLog.CAPTURE_REQUEST, CameraEventLog.REQUEST_UNLOCK_FOCUS, 0);
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), null, null);
             updateAutoFocus();
             updateFlash();
             mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                                        CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
-            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback,
-                                                null);
             mCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
+            setRepeatingPreviewRequest();
         } catch (CameraAccessException e) {
             Timber.e(e, "Failed to restart camera preview.");
         }
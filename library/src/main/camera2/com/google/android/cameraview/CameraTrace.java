@@ -0,0 +1,116 @@
+package com.google.android.cameraview;
+
+import android.os.Trace;
+
+import java.lang.reflect.Method;
+
+/**
+ * Trace sections and async slices of the camera pipeline, shown in systrace and Perfetto next
+ * to the UI frames.
+ * <p>
+ * Sections are named from a shared table, so tracing allocates nothing and costs a native check
+ * while disabled. Async slices span callbacks, e.g. from opening the camera to it being opened;
+ * their API is hidden before Android Q, so it is reached by reflection and skipped when
+ * unavailable.
+ */
+final class CameraTrace {
+
+    // Sections, on the calling thread
+    static final int CHOOSE_CAMERA_ID = 0;
+    static final int COLLECT_CAMERA_INFO = 1;
+    static final int PREPARE_MEDIA_RECORDER = 2;
+    static final int COPY_JPEG = 3;
+
+    // Async slices, across threads and callbacks
+    static final int OPEN_CAMERA = 4;
+    static final int CONFIGURE_SESSION = 5;
+    static final int LOCK_FOCUS = 6;
+    static final int PRECAPTURE = 7;
+    static final int WAIT_PRECAPTURE = 8;
+    static final int CAPTURE_STILL = 9;
+
+    private static final String[] NAMES = {
+            "CameraView#chooseCameraIdByFacing",
+            "CameraView#collectCameraInfo",
+            "CameraView#prepareMediaRecorder",
+            "CameraView#copyJpeg",
+            "CameraView#openCamera",
+            "CameraView#configureSession",
+            "CameraView#lockFocus",
+            "CameraView#precapture",
+            "CameraView#waitPrecapture",
+            "CameraView#captureStill",
+    };
+
+    /** {@code Trace.TRACE_TAG_APP}, the tag of {@link Trace#beginSection(String)}. */
+    private static final long TRACE_TAG_APP = 1L << 12;
+
+    private static final Object[] TAG_ARGUMENTS = {TRACE_TAG_APP};
+
+    private static final Method sIsTagEnabled;
+    private static final Method sAsyncTraceBegin;
+    private static final Method sAsyncTraceEnd;
+
+    /** The arguments of each async slice, built once so tracing doesn't box or allocate. */
+    private static final Object[][] sAsyncArguments = new Object[NAMES.length][];
+
+    static {
+        Method isTagEnabled = null;
+        Method asyncTraceBegin = null;
+        Method asyncTraceEnd = null;
+        try {
+            isTagEnabled = Trace.class.getMethod("isTagEnabled", long.class);
+            asyncTraceBegin = Trace.class.getMethod("asyncTraceBegin", long.class, String.class,
+                                                    int.class);
+            asyncTraceEnd = Trace.class.getMethod("asyncTraceEnd", long.class, String.class,
+                                                  int.class);
+        } catch (Exception e) {
+            // Without the hidden API, only sections are traced
+            isTagEnabled = null;
+        }
+        sIsTagEnabled = isTagEnabled;
+        sAsyncTraceBegin = asyncTraceBegin;
+        sAsyncTraceEnd = asyncTraceEnd;
+        for (int i = 0; i < NAMES.length; i++) {
+            // The cookie only needs to tell apart overlapping slices of the same name
+            sAsyncArguments[i] = new Object[]{TRACE_TAG_APP, NAMES[i], 0};
+        }
+    }
+
+    private CameraTrace() {
+    }
+
+    static void beginSection(int section) {
+        Trace.beginSection(NAMES[section]);
+    }
+
+    static void endSection() {
+        Trace.endSection();
+    }
+
+    /**
+     * Starts an async slice, which may end on another thread with {@link #endAsync(int)}. Only
+     * one slice of each kind may be open at a time.
+     */
+    static void beginAsync(int slice) {
+        invokeIfEnabled(sAsyncTraceBegin, slice);
+    }
+
+    static void endAsync(int slice) {
+        invokeIfEnabled(sAsyncTraceEnd, slice);
+    }
+
+    private static void invokeIfEnabled(Method method, int slice) {
+        if (sIsTagEnabled == null) {
+            return;
+        }
+        try {
+            if ((Boolean) sIsTagEnabled.invoke(null, TAG_ARGUMENTS)) {
+                method.invoke(null, sAsyncArguments[slice]);
+            }
+        } catch (Exception e) {
+            // Tracing is best effort
+        }
+    }
+
+}
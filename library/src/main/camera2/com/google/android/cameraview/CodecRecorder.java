@@ -0,0 +1,349 @@
+package com.google.android.cameraview;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import timber.log.Timber;
+
+/**
+ * Records video through a {@link MediaCodec} H.264 encoder fed by an input {@link Surface}.
+ * <p>
+ * Unlike {@link android.media.MediaRecorder} this gives access to the encoded buffers: they are
+ * muxed into the output file and also handed to an {@link EncodedFrameSink}. No audio is
+ * recorded.
+ * <p>
+ * While paused, encoded frames are dropped and the gap is later subtracted from the presentation
+ * times, so the output stays one continuous stream.
+ * <p>
+ * The bit rate can be scaled down at runtime, and is halved on its own whenever the storage left
+ * for the output file would last less than {@link #LOW_STORAGE_SECONDS} at the current rate.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class CodecRecorder {
+
+    private static final int I_FRAME_INTERVAL_SECONDS = 1;
+
+    private static final long DRAIN_TIMEOUT_US = 10000;
+
+    /** How long to wait for the end of the stream before the drain thread is stopped anyway. */
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private static final int MAX_POOLED_FRAMES = 8;
+
+    private static final long STORAGE_CHECK_INTERVAL_US = 2000000;
+
+    private static final long LOW_STORAGE_SECONDS = 60;
+
+    private static final float MIN_STORAGE_BIT_RATE_SCALE = 0.25f;
+
+    private final EncodedFrameSink mSink;
+
+    private final EncodedFramePool mFramePool = new EncodedFramePool(MAX_POOLED_FRAMES);
+
+    private MediaCodec mCodec;
+
+    private Surface mInputSurface;
+
+    @Nullable private MediaMuxer mMuxer;
+
+    private int mTrackIndex = -1;
+
+    @Nullable private File mOutputDirectory;
+
+    // Guarded by this
+    private int mBitRate;
+    private int mCurrentBitRate;
+    private float mBitRateScale = 1f;
+    private float mStorageBitRateScale = 1f;
+
+    private long mLastStorageCheckUs = -1;
+
+    private Thread mDrainThread;
+
+    /** Makes the drain thread return without waiting for the end of the stream. */
+    private volatile boolean mDrainStopped;
+
+    // Guarded by this; the drain thread reads them for every frame
+    private boolean mPaused;
+    private boolean mWaitingForKeyFrame;
+
+    // Only touched on the drain thread
+    private long mLastPresentationTimeUs = -1;
+    private long mFrameIntervalUs;
+    private long mPausedDurationUs;
+
+    CodecRecorder(EncodedFrameSink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Configures the encoder and the muxer.
+     *
+     * @param outputFilePath  The file to mux into, or {@code null} to only feed the sink.
+     * @param orientationHint The rotation in degrees to store in the output file.
+     */
+    void prepare(@Nullable String outputFilePath, int width, int height, int bitRate, int frameRate,
+                 int orientationHint) throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                          MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        synchronized (this) {
+            mBitRate = bitRate;
+            mCurrentBitRate = computeBitRate();
+        }
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mCurrentBitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL_SECONDS);
+
+        mCodec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+        mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mInputSurface = mCodec.createInputSurface();
+
+        if (outputFilePath != null) {
+            mMuxer = new MediaMuxer(outputFilePath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            mMuxer.setOrientationHint(orientationHint);
+            mOutputDirectory = new File(outputFilePath).getAbsoluteFile().getParentFile();
+        }
+    }
+
+    Surface getSurface() {
+        return mInputSurface;
+    }
+
+    void start() {
+        mCodec.start();
+        mDrainStopped = false;
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "CameraEncoder");
+        mDrainThread.start();
+    }
+
+    /**
+     * Ends the stream and waits for the remaining buffers to be written. If the end of the stream
+     * doesn't come out of the encoder in time, e.g. because the camera is already closed, the
+     * buffers still pending are dropped.
+     */
+    void stop() {
+        if (mDrainThread == null) {
+            return;
+        }
+        try {
+            mCodec.signalEndOfInputStream();
+            mDrainThread.join(STOP_TIMEOUT_MS);
+            if (mDrainThread.isAlive()) {
+                Timber.w("Video encoder didn't reach the end of the stream, stopping it");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            joinDrainThread();
+        }
+        mCodec.stop();
+        if (mMuxer != null && mTrackIndex >= 0) {
+            mMuxer.stop();
+        }
+    }
+
+    synchronized void pause() {
+        mPaused = true;
+    }
+
+    synchronized void resume() {
+        if (!mPaused) {
+            return;
+        }
+        mPaused = false;
+        mWaitingForKeyFrame = true;
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        mCodec.setParameters(params);
+    }
+
+    /**
+     * Scales the configured bit rate, e.g. under thermal pressure.
+     */
+    synchronized void setBitRateScale(float scale) {
+        mBitRateScale = scale;
+        updateBitRate();
+    }
+
+    private int computeBitRate() {
+        return Math.max(1, (int) (mBitRate * mBitRateScale * mStorageBitRateScale));
+    }
+
+    private void updateBitRate() {
+        int bitRate = computeBitRate();
+        if (mCodec == null || bitRate == mCurrentBitRate) {
+            return;
+        }
+        Timber.d("Video encoder bit rate changed from %d to %d", mCurrentBitRate, bitRate);
+        mCurrentBitRate = bitRate;
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        mCodec.setParameters(params);
+    }
+
+    /**
+     * Halves the bit rate, down to {@link #MIN_STORAGE_BIT_RATE_SCALE} of the configured one,
+     * when the remaining storage would be filled in less than {@link #LOW_STORAGE_SECONDS}.
+     */
+    private synchronized void checkStorage(long presentationTimeUs) {
+        if (mOutputDirectory == null || mStorageBitRateScale <= MIN_STORAGE_BIT_RATE_SCALE) {
+            return;
+        }
+        if (mLastStorageCheckUs >= 0 &&
+                presentationTimeUs - mLastStorageCheckUs < STORAGE_CHECK_INTERVAL_US) {
+            return;
+        }
+        mLastStorageCheckUs = presentationTimeUs;
+        long secondsLeft = mOutputDirectory.getUsableSpace() * 8 / mCurrentBitRate;
+        if (secondsLeft < LOW_STORAGE_SECONDS) {
+            Timber.w("Only %d seconds of storage left for recording, lowering the bit rate", secondsLeft);
+            mStorageBitRateScale = Math.max(MIN_STORAGE_BIT_RATE_SCALE, mStorageBitRateScale / 2);
+            updateBitRate();
+        }
+    }
+
+    /**
+     * Releases the encoder and the muxer, first stopping the recording if it is still running.
+     */
+    void release() {
+        if (mDrainThread != null) {
+            try {
+                stop();
+            } catch (RuntimeException e) {
+                // The drain thread is gone even so, and no longer reads from the codec
+                Timber.e(e, "Failed to stop video encoding.");
+            }
+        }
+        if (mCodec != null) {
+            mCodec.release();
+            mCodec = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+        if (mMuxer != null) {
+            mMuxer.release();
+            mMuxer = null;
+        }
+        mTrackIndex = -1;
+    }
+
+    /**
+     * Makes the drain thread return right away and waits for it, whether or not the end of the
+     * stream was reached.
+     */
+    private void joinDrainThread() {
+        Thread drainThread = mDrainThread;
+        if (drainThread == null) {
+            return;
+        }
+        mDrainStopped = true;
+        boolean interrupted = false;
+        while (drainThread.isAlive()) {
+            try {
+                drainThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        mDrainThread = null;
+    }
+
+    private void drain() {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (!mDrainStopped) {
+            int index = mCodec.dequeueOutputBuffer(info, DRAIN_TIMEOUT_US);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                if (mMuxer != null) {
+                    mTrackIndex = mMuxer.addTrack(mCodec.getOutputFormat());
+                    mMuxer.start();
+                }
+                continue;
+            }
+            if (index < 0) {
+                continue;
+            }
+            ByteBuffer buffer = mCodec.getOutputBuffer(index);
+            if (buffer != null && info.size > 0) {
+                writeSample(buffer, info);
+            }
+            mCodec.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                return;
+            }
+        }
+    }
+
+    private void writeSample(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && !adjustPresentationTime(info)) {
+            return;
+        }
+        if (mTrackIndex >= 0 && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+            buffer.position(info.offset);
+            buffer.limit(info.offset + info.size);
+            mMuxer.writeSampleData(mTrackIndex, buffer, info);
+            checkStorage(info.presentationTimeUs);
+        }
+        EncodedFrame frame = mFramePool.acquire(info.size);
+        if (frame == null) {
+            Timber.w("Dropping encoded frame at %d us, all pooled frames are in use",
+                     info.presentationTimeUs);
+            return;
+        }
+        buffer.position(info.offset);
+        buffer.limit(info.offset + info.size);
+        // MediaCodec buffer flags share their values with EncodedFrame's
+        frame.set(buffer, info.presentationTimeUs, info.flags);
+        mSink.onEncodedFrame(frame);
+    }
+
+    /**
+     * Shifts the presentation time of a frame back by the total time spent paused.
+     *
+     * @return {@code false} if the frame has to be dropped: it was encoded while paused, or it
+     * precedes the first key frame after resuming.
+     */
+    private synchronized boolean adjustPresentationTime(MediaCodec.BufferInfo info) {
+        long presentationTimeUs = info.presentationTimeUs;
+        if (mPaused) {
+            return false;
+        }
+        if (mWaitingForKeyFrame) {
+            if ((info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0) {
+                return false;
+            }
+            mWaitingForKeyFrame = false;
+            if (mLastPresentationTimeUs >= 0) {
+                // Close the gap, leaving one frame interval between the two segments
+                mPausedDurationUs += presentationTimeUs - mLastPresentationTimeUs - mFrameIntervalUs;
+            }
+        } else if (mLastPresentationTimeUs >= 0) {
+            mFrameIntervalUs = presentationTimeUs - mLastPresentationTimeUs;
+        }
+        mLastPresentationTimeUs = presentationTimeUs;
+        info.presentationTimeUs = presentationTimeUs - mPausedDurationUs;
+        return true;
+    }
+
+}
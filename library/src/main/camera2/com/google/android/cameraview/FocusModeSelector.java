@@ -33,6 +33,11 @@ final class FocusModeSelector {
         return CaptureRequest.CONTROL_AF_MODE_OFF;
     }
 
+    static boolean isAfModeSupported(CameraCharacteristics cameraCharacteristics, int mode) {
+        return arrayOfIntContains(
+                cameraCharacteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES), mode);
+    }
+
     private static boolean arrayOfIntContains(int[] array, int value) {
         if (array == null) return false;
         for (int arrayValue : array) {
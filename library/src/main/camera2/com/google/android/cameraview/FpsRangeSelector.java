@@ -0,0 +1,95 @@
+package com.google.android.cameraview;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.support.annotation.Nullable;
+import android.util.Range;
+
+/**
+ * Picks the auto-exposure target FPS range for a frame rate.
+ * <p>
+ * Recording wants steady frame timing: a fixed range at the frame rate, otherwise the range
+ * containing it with the highest lower bound. Preview wants a bright image: the widest range
+ * whose upper bound is the frame rate, so exposure can lengthen in low light. When no range
+ * fits, the one whose upper bound is closest to the frame rate is used.
+ */
+final class FpsRangeSelector {
+
+    private FpsRangeSelector() {
+    }
+
+    /**
+     * Picks the AE target FPS range for recording at {@code fps}: a fixed {@code [fps, fps]} range
+     * when available, otherwise the narrowest range that still contains {@code fps} with the
+     * highest lower bound, so exposure doesn't stretch frames in low light.
+     *
+     * @return The range, or {@code null} if the camera doesn't report any.
+     */
+    @Nullable
+    static Range<Integer> getBestRecordingRange(CameraCharacteristics cameraCharacteristics, int fps) {
+        Range<Integer>[] ranges = cameraCharacteristics.get(
+                CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        return ranges == null ? null : getBestRecordingRange(ranges, fps);
+    }
+
+    @Nullable
+    static Range<Integer> getBestRecordingRange(Range<Integer>[] ranges, int fps) {
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (!range.contains(fps)) {
+                continue;
+            }
+            if (best == null || range.getLower() > best.getLower() ||
+                    (range.getLower().equals(best.getLower()) && range.getUpper() < best.getUpper())) {
+                best = range;
+            }
+        }
+        return best != null ? best : getClosestRange(ranges, fps);
+    }
+
+    /**
+     * Picks the AE target FPS range for preview at {@code fps}: the widest range topping out at
+     * {@code fps}, which lets auto-exposure slow down in low light instead of darkening the
+     * preview.
+     *
+     * @return The range, or {@code null} if the camera doesn't report any.
+     */
+    @Nullable
+    static Range<Integer> getBestPreviewRange(CameraCharacteristics cameraCharacteristics, int fps) {
+        Range<Integer>[] ranges = cameraCharacteristics.get(
+                CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        return ranges == null ? null : getBestPreviewRange(ranges, fps);
+    }
+
+    @Nullable
+    static Range<Integer> getBestPreviewRange(Range<Integer>[] ranges, int fps) {
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() != fps) {
+                continue;
+            }
+            if (best == null || range.getLower() < best.getLower()) {
+                best = range;
+            }
+        }
+        return best != null ? best : getBestRecordingRange(ranges, fps);
+    }
+
+    /**
+     * @return The range whose upper bound is closest to {@code fps}, preferring the higher lower
+     * bound on ties.
+     */
+    @Nullable
+    private static Range<Integer> getClosestRange(Range<Integer>[] ranges, int fps) {
+        Range<Integer> best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        for (Range<Integer> range : ranges) {
+            int distance = Math.abs(range.getUpper() - fps);
+            if (distance < bestDistance ||
+                    (distance == bestDistance && range.getLower() > best.getLower())) {
+                best = range;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+}
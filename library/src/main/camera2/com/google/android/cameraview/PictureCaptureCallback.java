@@ -8,9 +8,14 @@ import android.support.annotation.NonNull;
 
 /**
  * A {@link CameraCaptureSession.CaptureCallback} for capturing a still picture.
+ * <p>
+ * Each phase waiting for the camera (locking focus, starting and finishing the AE precapture
+ * sequence) has a deadline, measured in the sensor timestamps of the frames it sees. A phase
+ * that overruns falls through to taking the picture, so a stuck AF or AE state can't keep
+ * {@link #onReady()} from being called. A scene focus can't lock on gives up after
+ * {@link #MAX_LOCK_FOCUS_ATTEMPTS} instead of waiting for the deadline.
  */
 abstract class PictureCaptureCallback extends CameraCaptureSession.CaptureCallback {
-    private static final int MAX_LOCK_FOCUS_ATTEMPTS = 3;
 
     public static final int STATE_PREVIEW = 0;
     public static final int STATE_LOCKING = 1;
@@ -19,15 +24,50 @@ abstract class PictureCaptureCallback extends CameraCaptureSession.CaptureCallba
     public static final int STATE_WAITING = 4;
     public static final int STATE_CAPTURING = 5;
 
+    private static final long LOCKING_TIMEOUT_NS = 2000000000L;
+    private static final long PRECAPTURE_TIMEOUT_NS = 1000000000L;
+    private static final long WAITING_TIMEOUT_NS = 1500000000L;
+
+    private static final int MAX_LOCK_FOCUS_ATTEMPTS = 3;
+
+    /** Frames in flight still report the previous AF state for a while after a trigger. */
+    private static final long LOCK_FOCUS_RETRY_INTERVAL_NS = 300000000L;
+
+    private static final long UNKNOWN = -1;
+
     private int mState;
+
+    /** Sensor timestamp of the first frame seen in the current phase. */
+    private long mPhaseStartNs = UNKNOWN;
+
+    private long mLastLockFocusRetryNs = UNKNOWN;
+
     private int mLockFocusAttemptsCount;
 
 
+    /**
+     * Moves to {@code state}. Setting the current state again, e.g. when retrying to lock focus,
+     * keeps the phase's deadline.
+     */
     public void setState(int state) {
-        mState = state;
+        if (mState != state) {
+            traceSlice(mState, false);
+            mState = state;
+            mPhaseStartNs = UNKNOWN;
+            traceSlice(state, true);
+        }
+    }
+
+    public int getState() {
+        return mState;
     }
 
-    public void clearLockFocusAttemptsCount() {
+    /**
+     * Prepares for a new picture.
+     */
+    public void reset() {
+        mPhaseStartNs = UNKNOWN;
+        mLastLockFocusRetryNs = UNKNOWN;
         mLockFocusAttemptsCount = 0;
     }
 
@@ -46,6 +86,10 @@ abstract class PictureCaptureCallback extends CameraCaptureSession.CaptureCallba
     }
 
     private void process(@NonNull CaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (timestamp != null && checkDeadline(timestamp)) {
+            return;
+        }
         switch (mState) {
             case STATE_LOCKING: {
                 Integer af = result.get(CaptureResult.CONTROL_AF_STATE);
@@ -56,6 +100,7 @@ abstract class PictureCaptureCallback extends CameraCaptureSession.CaptureCallba
                 boolean focused = af == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED;
                 boolean notFocused = af == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED;
                 if (focused || (notFocused && mLockFocusAttemptsCount >= MAX_LOCK_FOCUS_ATTEMPTS)) {
+                    finishPhase(timestamp, false);
                     if (ae == null || ae == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
                         setState(STATE_CAPTURING);
                         onReady();
@@ -63,9 +108,12 @@ abstract class PictureCaptureCallback extends CameraCaptureSession.CaptureCallba
                         setState(STATE_LOCKED);
                         onPrecaptureRequired();
                     }
-                } else if (notFocused) {
-                    onLockFocusRetryRequired();
+                } else if (notFocused && timestamp != null && (mLastLockFocusRetryNs == UNKNOWN ||
+                        timestamp - mLastLockFocusRetryNs >= LOCK_FOCUS_RETRY_INTERVAL_NS)) {
+                    // Keep trying until the attempts or the deadline run out
+                    mLastLockFocusRetryNs = timestamp;
                     mLockFocusAttemptsCount++;
+                    onLockFocusRetryRequired();
                 }
                 break;
             }
@@ -74,6 +122,7 @@ abstract class PictureCaptureCallback extends CameraCaptureSession.CaptureCallba
                 if (ae == null || ae == CaptureResult.CONTROL_AE_STATE_PRECAPTURE ||
                         ae == CaptureRequest.CONTROL_AE_STATE_FLASH_REQUIRED ||
                         ae == CaptureResult.CONTROL_AE_STATE_CONVERGED) {
+                    finishPhase(timestamp, false);
                     setState(STATE_WAITING);
                 }
                 break;
@@ -81,6 +130,7 @@ abstract class PictureCaptureCallback extends CameraCaptureSession.CaptureCallba
             case STATE_WAITING: {
                 Integer ae = result.get(CaptureResult.CONTROL_AE_STATE);
                 if (ae == null || ae != CaptureResult.CONTROL_AE_STATE_PRECAPTURE) {
+                    finishPhase(timestamp, false);
                     setState(STATE_CAPTURING);
                     onReady();
                 }
@@ -89,6 +139,70 @@ abstract class PictureCaptureCallback extends CameraCaptureSession.CaptureCallba
         }
     }
 
+    /**
+     * Starts the current phase's clock on its first frame, and takes the picture once the
+     * phase has run past its deadline.
+     *
+     * @return {@code true} if the deadline has passed.
+     */
+    private boolean checkDeadline(long timestamp) {
+        long timeout = getTimeout(mState);
+        if (timeout == UNKNOWN) {
+            return false;
+        }
+        if (mPhaseStartNs == UNKNOWN) {
+            mPhaseStartNs = timestamp;
+            return false;
+        }
+        if (timestamp - mPhaseStartNs <= timeout) {
+            return false;
+        }
+        finishPhase(timestamp, true);
+        setState(STATE_CAPTURING);
+        onReady();
+        return true;
+    }
+
+    private void finishPhase(Long timestamp, boolean timedOut) {
+        long duration = timestamp != null && mPhaseStartNs != UNKNOWN ?
+                timestamp - mPhaseStartNs : 0;
+        onPhaseFinished(mState, duration, timedOut);
+    }
+
+    private static void traceSlice(int state, boolean begin) {
+        int slice;
+        switch (state) {
+            case STATE_LOCKING:
+                slice = CameraTrace.LOCK_FOCUS;
+                break;
+            case STATE_PRECAPTURE:
+                slice = CameraTrace.PRECAPTURE;
+                break;
+            case STATE_WAITING:
+                slice = CameraTrace.WAIT_PRECAPTURE;
+                break;
+            default:
+                return;
+        }
+        if (begin) {
+            CameraTrace.beginAsync(slice);
+        } else {
+            CameraTrace.endAsync(slice);
+        }
+    }
+
+    private static long getTimeout(int state) {
+        switch (state) {
+            case STATE_LOCKING:
+                return LOCKING_TIMEOUT_NS;
+            case STATE_PRECAPTURE:
+                return PRECAPTURE_TIMEOUT_NS;
+            case STATE_WAITING:
+                return WAITING_TIMEOUT_NS;
+        }
+        return UNKNOWN;
+    }
+
     /**
      * Called when it is ready to take a still picture.
      */
@@ -98,8 +212,20 @@ abstract class PictureCaptureCallback extends CameraCaptureSession.CaptureCallba
      * Called when it is necessary to run the precapture sequence.
      */
     public abstract void onPrecaptureRequired();
+
     /**
-     * Called when locking focus has failed but MAX_LOCK_FOCUS_ATTEMPTS hasn't been reached yet
+     * Called when locking focus has failed, and neither {@link #MAX_LOCK_FOCUS_ATTEMPTS} nor the
+     * locking deadline have run out yet.
      */
     public abstract void onLockFocusRetryRequired();
+
+    /**
+     * Called when a phase ends, before moving to the next one.
+     *
+     * @param state      The phase, e.g. {@link #STATE_LOCKING}.
+     * @param durationNs The time the phase took, in sensor time.
+     * @param timedOut   {@code true} if the phase overran its deadline and the picture is taken
+     *                   without it completing.
+     */
+    public abstract void onPhaseFinished(int state, long durationNs, boolean timedOut);
 }
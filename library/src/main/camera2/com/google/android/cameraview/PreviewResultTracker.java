@@ -0,0 +1,70 @@
+package com.google.android.cameraview;
+
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+/**
+ * A light {@link CameraCaptureSession.CaptureCallback} for the repeating preview request that
+ * only remembers the latest AF, AE and AWB states, so a picture can be taken right away when
+ * they have already converged.
+ */
+class PreviewResultTracker extends CameraCaptureSession.CaptureCallback {
+
+    private static final int UNKNOWN = -1;
+
+    private volatile int mAfState = UNKNOWN;
+    private volatile int mAeState = UNKNOWN;
+    private volatile int mAwbState = UNKNOWN;
+
+    /** {@link SystemClock#elapsedRealtimeNanos()} when the states were last updated. */
+    private volatile long mUpdatedAtNs;
+
+    void reset() {
+        mUpdatedAtNs = 0;
+    }
+
+    @Override
+    public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                   @NonNull CaptureRequest request,
+                                   @NonNull TotalCaptureResult result) {
+        mAfState = valueOf(result.get(CaptureResult.CONTROL_AF_STATE));
+        mAeState = valueOf(result.get(CaptureResult.CONTROL_AE_STATE));
+        mAwbState = valueOf(result.get(CaptureResult.CONTROL_AWB_STATE));
+        mUpdatedAtNs = SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * @param maxAgeNs How old the latest preview result may be.
+     * @return {@code true} if continuous AF is focused and AE and AWB have converged in a preview
+     * result no older than {@code maxAgeNs}. States a camera doesn't report count as converged.
+     */
+    boolean isConverged(long maxAgeNs) {
+        long updatedAtNs = mUpdatedAtNs;
+        if (updatedAtNs == 0 || SystemClock.elapsedRealtimeNanos() - updatedAtNs > maxAgeNs) {
+            return false;
+        }
+        int af = mAfState;
+        int ae = mAeState;
+        int awb = mAwbState;
+        return (af == UNKNOWN || af == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED ||
+                af == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED) &&
+                (ae == UNKNOWN || ae == CaptureResult.CONTROL_AE_STATE_CONVERGED ||
+                        ae == CaptureResult.CONTROL_AE_STATE_LOCKED) &&
+                (awb == UNKNOWN || awb == CaptureResult.CONTROL_AWB_STATE_CONVERGED ||
+                        awb == CaptureResult.CONTROL_AWB_STATE_LOCKED);
+    }
+
+    @Override
+    public String toString() {
+        return "AF " + mAfState + ", AE " + mAeState + ", AWB " + mAwbState;
+    }
+
+    private static int valueOf(Integer state) {
+        return state == null ? UNKNOWN : state;
+    }
+
+}
@@ -20,6 +20,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Matrix;
+import android.graphics.RectF;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.IntDef;
@@ -28,6 +29,7 @@ import android.support.annotation.Nullable;
 import android.support.v4.os.ParcelableCompat;
 import android.support.v4.os.ParcelableCompatCreatorCallbacks;
 import android.util.AttributeSet;
+import android.util.Range;
 import android.view.TextureView;
 import android.widget.FrameLayout;
 
@@ -71,6 +73,35 @@ public class CameraView extends FrameLayout {
     public @interface Flash {
     }
 
+    /** The video encoding bit rate is used as is. */
+    public static final int VIDEO_BIT_RATE_FIXED = Constants.VIDEO_BIT_RATE_FIXED;
+
+    /** The bit rate of the camera's closest camcorder profile, scaled to the video size. */
+    public static final int VIDEO_BIT_RATE_CAMCORDER_PROFILE = Constants.VIDEO_BIT_RATE_CAMCORDER_PROFILE;
+
+    /** A fixed number of bits for every pixel of every frame. */
+    public static final int VIDEO_BIT_RATE_BITS_PER_PIXEL = Constants.VIDEO_BIT_RATE_BITS_PER_PIXEL;
+
+    /** A fixed number of bytes of storage per minute of video. */
+    public static final int VIDEO_BIT_RATE_BYTES_PER_MINUTE = Constants.VIDEO_BIT_RATE_BYTES_PER_MINUTE;
+
+    /** How the video encoding bit rate is chosen for the recorded video size. */
+    @IntDef({VIDEO_BIT_RATE_FIXED, VIDEO_BIT_RATE_CAMCORDER_PROFILE, VIDEO_BIT_RATE_BITS_PER_PIXEL,
+            VIDEO_BIT_RATE_BYTES_PER_MINUTE})
+    public @interface VideoBitRateStrategy {
+    }
+
+    /** Pictures always lock focus and run the AE precapture sequence first. */
+    public static final int CAPTURE_POLICY_QUALITY = Constants.CAPTURE_POLICY_QUALITY;
+
+    /** Pictures are taken right away when the preview shows AF, AE and AWB have converged. */
+    public static final int CAPTURE_POLICY_LATENCY = Constants.CAPTURE_POLICY_LATENCY;
+
+    /** Whether taking a picture favors quality or latency. */
+    @IntDef({CAPTURE_POLICY_QUALITY, CAPTURE_POLICY_LATENCY})
+    public @interface CapturePolicy {
+    }
+
     private final CameraViewImpl mImpl;
 
     private final CallbackBridge mCallbacks;
@@ -102,14 +133,28 @@ public class CameraView extends FrameLayout {
                 R.style.Widget_CameraView);
         setFacing(a.getInt(R.styleable.CameraView_facing, FACING_BACK));
         setVideoEncodingBitRate(a.getInt(R.styleable.CameraView_videoEncodingBitRate, 5000000));
+        setVideoBitRateStrategy(a.getInt(R.styleable.CameraView_videoBitRateStrategy,
+                                         VIDEO_BIT_RATE_FIXED));
+        setVideoBitsPerPixel(a.getFloat(R.styleable.CameraView_videoBitsPerPixel, 0.1f));
+        setVideoBytesPerMinute(a.getInt(R.styleable.CameraView_videoBytesPerMinute, 60000000));
         setVideoFrameRate(a.getInt(R.styleable.CameraView_videoFrameRate, 30));
         setMinVideoWidth(a.getInt(R.styleable.CameraView_minVideoWidth, 0));
         setMinVideoHeight(a.getInt(R.styleable.CameraView_minVideoHeight, 0));
+        setAspectRatioTolerance(a.getFloat(R.styleable.CameraView_aspectRatioTolerance, 0.01f));
+        float maxPictureMegapixels = a.getFloat(R.styleable.CameraView_maxPictureMegapixels, 0);
+        if (maxPictureMegapixels > 0) {
+            setPictureSizeSelector(SizeSelectors.maxMegapixels(maxPictureMegapixels));
+        }
         setAutoFocus(a.getBoolean(R.styleable.CameraView_autoFocus, true));
         setFlash(a.getInt(R.styleable.CameraView_flash, Constants.FLASH_AUTO));
+        setCapturePolicy(a.getInt(R.styleable.CameraView_capturePolicy, CAPTURE_POLICY_QUALITY));
+        setFaceDetection(a.getBoolean(R.styleable.CameraView_faceDetection, false));
+        boolean useOrientationSensor = a.getBoolean(R.styleable.CameraView_useOrientationSensor,
+                                                    false);
         a.recycle();
         // Display orientation detector
-        mDisplayOrientationDetector = new DisplayOrientationDetector(context) {
+        mDisplayOrientationDetector = new DisplayOrientationDetector(context,
+                                                                     useOrientationSensor) {
             @Override
             public void onDisplayOrientationChanged(int displayOrientation) {
                 mImpl.setDisplayOrientation(displayOrientation);
@@ -168,6 +213,17 @@ public class CameraView extends FrameLayout {
         mImpl.startVideoMode();
     }
 
+    /**
+     * Open a camera device and start showing camera preview for high speed (e.g. 120 or 240 fps)
+     * video recording, at the rate set with the {@code videoFrameRate} attribute. Preview and
+     * recording use the same size, picked among the sizes the camera supports at that rate. Falls
+     * back to {@link #startVideoMode()} when the camera has no constrained high speed support for
+     * the rate.
+     */
+    public void startHighSpeedVideoMode() {
+        mImpl.startHighSpeedVideoMode();
+    }
+
     /**
      * Stop camera preview and close the device. This is typically called from
      * {@link Activity#onPause()}.
@@ -240,6 +296,53 @@ public class CameraView extends FrameLayout {
         return mImpl.getVideoEncodingBitRate();
     }
 
+    /**
+     * Sets how the video recording bit rate is chosen for the recorded video size.
+     *
+     * @param strategy The bit rate strategy.
+     */
+    void setVideoBitRateStrategy(@VideoBitRateStrategy int strategy) {
+        mImpl.setVideoBitRateStrategy(strategy);
+    }
+
+    /**
+     * Gets how the video recording bit rate is chosen for the recorded video size.
+     */
+    @VideoBitRateStrategy
+    int getVideoBitRateStrategy() {
+        //noinspection WrongConstant
+        return mImpl.getVideoBitRateStrategy();
+    }
+
+    /**
+     * Sets the bits per pixel and frame used by {@link #VIDEO_BIT_RATE_BITS_PER_PIXEL}.
+     *
+     * @param bitsPerPixel The number of bits per pixel and frame.
+     */
+    void setVideoBitsPerPixel(float bitsPerPixel) {
+        mImpl.setVideoBitsPerPixel(bitsPerPixel);
+    }
+
+    /**
+     * Sets the bytes of video per minute used by {@link #VIDEO_BIT_RATE_BYTES_PER_MINUTE}.
+     *
+     * @param bytesPerMinute The number of bytes per minute of video.
+     */
+    void setVideoBytesPerMinute(long bytesPerMinute) {
+        mImpl.setVideoBytesPerMinute(bytesPerMinute);
+    }
+
+    /**
+     * Scales the bit rate of later recordings, e.g. to shed load under thermal pressure. While an
+     * {@link EncodedFrameSink} is set the ongoing recording is adjusted right away too, on top of
+     * the reduction the encoder applies on its own when storage runs low.
+     *
+     * @param scale The factor applied to the bit rate, between 0 and 1.
+     */
+    public void setVideoEncodingBitRateScale(float scale) {
+        mImpl.setVideoEncodingBitRateScale(scale);
+    }
+
     /**
      * Sets the video recording frame rate for the camera.
      *
@@ -256,6 +359,18 @@ public class CameraView extends FrameLayout {
         return mImpl.getVideoFrameRate();
     }
 
+    /**
+     * Gets the auto-exposure target FPS range picked for the current capture session from the
+     * video frame rate: fixed while recording, and wider for preview.
+     *
+     * @return The range, or {@code null} if no session has been started or the camera doesn't
+     * report any.
+     */
+    @Nullable
+    public Range<Integer> getAeTargetFpsRange() {
+        return mImpl.getAeTargetFpsRange();
+    }
+
     /**
      * Sets the minimum video recording width in pixels.
      *
@@ -289,6 +404,77 @@ public class CameraView extends FrameLayout {
         return mImpl.getMinVideoHeight();
     }
 
+    /**
+     * Sets the strategy choosing the preview size from the surface size. Defaults to
+     * {@link SizeSelectors#smallestCover()}. Takes effect from the next capture session.
+     */
+    public void setPreviewSizeSelector(@NonNull SizeSelector selector) {
+        mImpl.setPreviewSizeSelector(selector);
+    }
+
+    /**
+     * Sets the strategy choosing the video size from the preview aspect ratio and the minimum
+     * video size. Defaults to {@link SizeSelectors#smallestCoverOfRatio()}. Takes effect from the
+     * next capture session.
+     */
+    public void setVideoSizeSelector(@NonNull SizeSelector selector) {
+        mImpl.setVideoSizeSelector(selector);
+    }
+
+    /**
+     * Sets the strategy choosing the picture size from the preview aspect ratio. Defaults to
+     * {@link SizeSelectors#largestOfRatio()}, the largest picture the camera can take; use e.g.
+     * {@link SizeSelectors#maxMegapixels(float)} or {@link SizeSelectors#maxLongEdge(int)} to
+     * keep pictures and their buffers smaller. Takes effect from the next capture session.
+     */
+    public void setPictureSizeSelector(@NonNull SizeSelector selector) {
+        mImpl.setPictureSizeSelector(selector);
+    }
+
+    /**
+     * Gets an estimate of the native memory the buffers of the current picture or video snapshot
+     * reader can take.
+     *
+     * @return The estimate in bytes, or {@code 0} if there is no reader.
+     */
+    public long getImageReaderMemoryBytes() {
+        return mImpl.getImageReaderMemoryBytes();
+    }
+
+    /**
+     * Gets how many times a preview, video or picture size was reused from an earlier capture
+     * session with the same camera and surface geometry instead of being selected again.
+     */
+    public int getSizeDecisionHitCount() {
+        return mImpl.getSizeDecisionHitCount();
+    }
+
+    /**
+     * Gets how many times a preview, video or picture size had to be selected.
+     */
+    public int getSizeDecisionMissCount() {
+        return mImpl.getSizeDecisionMissCount();
+    }
+
+    /**
+     * Sets how far apart, relative to their values, aspect ratios can be and still be treated as
+     * the same one when picking preview, picture and video sizes. The supported sizes are
+     * regrouped right away, which can change {@link #getSupportedAspectRatios()}; the sizes in use
+     * are picked again the next time a capture session starts.
+     *
+     * @param tolerance The tolerance, e.g. {@code 0.01} for 1%, or {@code 0} for exact matches.
+     */
+    void setAspectRatioTolerance(float tolerance) {
+        mImpl.setAspectRatioTolerance(tolerance);
+    }
+
+    /**
+     * Gets the tolerance used to match aspect ratios.
+     */
+    float getAspectRatioTolerance() {
+        return mImpl.getAspectRatioTolerance();
+    }
+
     /**
      * Gets all the aspect ratios supported by the current camera.
      */
@@ -337,6 +523,100 @@ public class CameraView extends FrameLayout {
         return mImpl.getFlash();
     }
 
+    /**
+     * Sets whether taking a picture favors quality or latency. With
+     * {@link #CAPTURE_POLICY_LATENCY}, the AF lock and AE precapture sequence are skipped when
+     * recent preview frames show continuous auto-focus is focused and exposure and white balance
+     * have converged. Flash modes that fire the flash always go through them.
+     *
+     * @param capturePolicy The capture policy, {@link #CAPTURE_POLICY_QUALITY} by default.
+     */
+    public void setCapturePolicy(@CapturePolicy int capturePolicy) {
+        mImpl.setCapturePolicy(capturePolicy);
+    }
+
+    /**
+     * Gets the capture policy.
+     */
+    @CapturePolicy
+    public int getCapturePolicy() {
+        //noinspection WrongConstant
+        return mImpl.getCapturePolicy();
+    }
+
+    /**
+     * Enables face detection by the camera hardware, using the most detailed mode it supports.
+     * Detected faces will be returned to {@link Callback#onFacesDetected(CameraView, List)}, in
+     * coordinates of this view. This is ignored if the camera can't detect faces.
+     *
+     * @param faceDetection {@code true} to detect faces, {@code false} by default.
+     */
+    public void setFaceDetection(boolean faceDetection) {
+        mImpl.setFaceDetection(faceDetection);
+    }
+
+    /**
+     * Returns whether face detection is enabled.
+     */
+    public boolean getFaceDetection() {
+        return mImpl.getFaceDetection();
+    }
+
+    /**
+     * Publishes the capture metadata of every preview frame, such as its exposure time,
+     * sensitivity and lens state, to the ring returned by {@link #getFrameMetadata()}.
+     *
+     * @param enabled {@code true} to publish frame metadata, {@code false} by default.
+     */
+    public void setFrameMetadataEnabled(boolean enabled) {
+        mImpl.setFrameMetadataEnabled(enabled);
+    }
+
+    /**
+     * Returns whether frame metadata is published.
+     */
+    public boolean isFrameMetadataEnabled() {
+        return mImpl.isFrameMetadataEnabled();
+    }
+
+    /**
+     * Gets the ring of the latest preview frames' metadata, filled while
+     * {@link #setFrameMetadataEnabled(boolean) enabled}. It can be read from any thread without
+     * locking, e.g. with {@link FrameMetadataRing#readLatest(FrameMetadata)} and a reused
+     * {@link FrameMetadata}.
+     */
+    public FrameMetadataRing getFrameMetadata() {
+        return mImpl.getFrameMetadata();
+    }
+
+    /**
+     * Gets the latencies of the camera pipeline, such as opening the camera, showing the first
+     * preview frame, taking a picture or starting to record, measured since this view was
+     * created.
+     */
+    public CameraMetrics getMetrics() {
+        return mImpl.getMetrics();
+    }
+
+    /**
+     * Gets how smoothly preview frames are displayed: the intervals between frames, dropped
+     * frames, and the delay from the sensor exposure to the display. The delay is only known on
+     * cameras whose sensor timestamps use the {@link android.os.SystemClock#elapsedRealtimeNanos()}
+     * time base.
+     */
+    public FramePacing getFramePacing() {
+        return mImpl.getFramePacing();
+    }
+
+    /**
+     * Gets the log of the camera's latest state transitions, such as opening, session
+     * configuration, requests and errors. Dump it, e.g. with
+     * {@link CameraEventLog#dump(java.io.File)}, when the camera misbehaves.
+     */
+    public CameraEventLog getEventLog() {
+        return mImpl.getEventLog();
+    }
+
     /**
      * Start recording a video.
      *
@@ -360,14 +640,70 @@ public class CameraView extends FrameLayout {
         return mImpl.isRecordingVideo();
     }
 
+    /**
+     * Pause video recording. The camera session keeps running, and recording carries on into the
+     * same file after {@link #resumeRecordingVideo()}.
+     *
+     * @return {@code true} if the recording is paused. Pausing requires API 24, unless an
+     * {@link EncodedFrameSink} is set.
+     */
+    public boolean pauseRecordingVideo() {
+        return mImpl.pauseRecordingVideo();
+    }
+
+    /**
+     * Resume a video recording paused with {@link #pauseRecordingVideo()}.
+     */
+    public void resumeRecordingVideo() {
+        mImpl.resumeRecordingVideo();
+    }
+
+    /**
+     * Whether or not the current video recording is paused.
+     */
+    public boolean isRecordingVideoPaused() {
+        return mImpl.isRecordingVideoPaused();
+    }
+
+    /**
+     * Sets a sink receiving the encoded H.264 stream of subsequent recordings. While a sink is
+     * set, videos are recorded through a {@link android.media.MediaCodec} encoder, without audio,
+     * and the same buffers are still written to the file passed to
+     * {@link #startRecordingVideo(String)}.
+     *
+     * @param sink The sink, or {@code null} to record with the MediaRecorder again.
+     */
+    public void setEncodedFrameSink(@Nullable EncodedFrameSink sink) {
+        mImpl.setEncodedFrameSink(sink);
+    }
+
     /**
      * Take a picture. The result will be returned to
      * {@link Callback#onPictureTaken(CameraView, byte[])}.
+     * <p>
+     * In video mode this takes a snapshot of the ongoing recording, at most as large as the video,
+     * without interrupting it. It is ignored when not recording or in high speed video mode.
      */
     public void takePicture() {
         mImpl.takePicture();
     }
 
+    /**
+     * Focuses and meters on a point of the preview, e.g. where the user touched it. The result
+     * will be returned to {@link Callback#onFocusFinished(CameraView, boolean, long)}.
+     * <p>
+     * The lens stays where it settled until the next picture is taken or auto-focus is changed,
+     * when continuous auto-focus resumes and focus and metering cover the whole frame again.
+     * Without auto-focus, only metering uses the point. This is ignored in high speed video mode,
+     * or if the camera can't focus or meter on a region.
+     *
+     * @param x The x coordinate of the point, in pixels of this view.
+     * @param y The y coordinate of the point, in pixels of this view.
+     */
+    public void focusAt(float x, float y) {
+        mImpl.focusAt(x, y);
+    }
+
     private class CallbackBridge implements CameraViewImpl.Callback {
 
         private final ArrayList<Callback> mCallbacks = new ArrayList<>();
@@ -412,6 +748,20 @@ public class CameraView extends FrameLayout {
             mTextureView.setTransform(matrix);
         }
 
+        @Override
+        public void onFocusFinished(boolean focused, long durationMs) {
+            for (Callback callback : mCallbacks) {
+                callback.onFocusFinished(CameraView.this, focused, durationMs);
+            }
+        }
+
+        @Override
+        public void onFacesDetected(List<RectF> faces) {
+            for (Callback callback : mCallbacks) {
+                callback.onFacesDetected(CameraView.this, faces);
+            }
+        }
+
         public void reserveRequestLayoutOnOpen() {
             mRequestLayoutOnOpen = true;
         }
@@ -494,6 +844,28 @@ public class CameraView extends FrameLayout {
          */
         public void onPictureTaken(CameraView cameraView, byte[] data) {
         }
+
+        /**
+         * Called when focusing on a point requested by {@link #focusAt(float, float)} finishes.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param focused    {@code true} if the lens is in focus, {@code false} if it couldn't
+         *                   focus or didn't settle in time.
+         * @param durationMs The time it took to focus, in milliseconds.
+         */
+        public void onFocusFinished(CameraView cameraView, boolean focused, long durationMs) {
+        }
+
+        /**
+         * Called when the faces detected in the preview change, at most ten times per second.
+         * The list and its rectangles are reused for the next call, copy them to keep them.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param faces      The bounds of the faces in coordinates of the view, empty when the
+         *                   faces are lost.
+         */
+        public void onFacesDetected(CameraView cameraView, List<RectF> faces) {
+        }
     }
 
 }
@@ -17,6 +17,8 @@
 package com.google.android.cameraview;
 
 import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.support.annotation.Nullable;
 import android.util.SparseIntArray;
 import android.view.Display;
 import android.view.OrientationEventListener;
@@ -25,10 +27,19 @@ import android.view.Surface;
 
 /**
  * Monitors the value returned from {@link Display#getRotation()}.
+ * <p>
+ * By default this listens to {@link DisplayManager} and only wakes up when a display actually
+ * changes. The orientation sensor, which keeps the accelerometer running and queries the
+ * rotation on every event, is only used when asked for, e.g. for devices that don't report
+ * rotations through {@link DisplayManager}.
  */
 abstract class DisplayOrientationDetector {
 
-    private final OrientationEventListener mOrientationEventListener;
+    @Nullable private final OrientationEventListener mOrientationEventListener;
+
+    @Nullable private final DisplayManager mDisplayManager;
+
+    @Nullable private final DisplayManager.DisplayListener mDisplayListener;
 
     /** Mapping from Surface.Rotation_n to degrees. */
     private static final SparseIntArray DISPLAY_ORIENTATIONS = new SparseIntArray();
@@ -42,39 +53,86 @@ abstract class DisplayOrientationDetector {
 
     private Display mDisplay;
 
+    /** This is either Surface.Rotation_0, _90, _180, _270, or -1 (invalid). */
+    private int mLastKnownRotation = -1;
+
     private int mLastKnownDisplayOrientation = 0;
 
     public DisplayOrientationDetector(Context context) {
-        mOrientationEventListener = new OrientationEventListener(context) {
+        this(context, false);
+    }
 
-            /** This is either Surface.Rotation_0, _90, _180, _270, or -1 (invalid). */
-            private int mLastKnownRotation = -1;
+    /**
+     * @param useOrientationSensor {@code true} to poll the rotation on orientation sensor events
+     *                             instead of listening to display changes.
+     */
+    public DisplayOrientationDetector(Context context, boolean useOrientationSensor) {
+        if (useOrientationSensor) {
+            mDisplayManager = null;
+            mDisplayListener = null;
+            mOrientationEventListener = new OrientationEventListener(context) {
+                @Override
+                public void onOrientationChanged(int orientation) {
+                    if (orientation == OrientationEventListener.ORIENTATION_UNKNOWN) {
+                        return;
+                    }
+                    checkRotation();
+                }
+            };
+        } else {
+            mOrientationEventListener = null;
+            mDisplayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+            mDisplayListener = new DisplayManager.DisplayListener() {
+                @Override
+                public void onDisplayAdded(int displayId) {
+                }
 
-            @Override
-            public void onOrientationChanged(int orientation) {
-                if (orientation == OrientationEventListener.ORIENTATION_UNKNOWN ||
-                        mDisplay == null) {
-                    return;
+                @Override
+                public void onDisplayRemoved(int displayId) {
                 }
-                final int rotation = mDisplay.getRotation();
-                if (mLastKnownRotation != rotation) {
-                    mLastKnownRotation = rotation;
-                    dispatchOnDisplayOrientationChanged(DISPLAY_ORIENTATIONS.get(rotation));
+
+                @Override
+                public void onDisplayChanged(int displayId) {
+                    if (mDisplay != null && mDisplay.getDisplayId() == displayId) {
+                        checkRotation();
+                    }
                 }
-            }
-        };
+            };
+        }
     }
 
     public void enable(Display display) {
         mDisplay = display;
-        mOrientationEventListener.enable();
+        if (mOrientationEventListener != null) {
+            mOrientationEventListener.enable();
+        } else if (mDisplayManager != null) {
+            // Callbacks come on the looper of the calling thread
+            mDisplayManager.registerDisplayListener(mDisplayListener, null);
+        }
         // Immediately dispatch the first callback
-        dispatchOnDisplayOrientationChanged(DISPLAY_ORIENTATIONS.get(display.getRotation()));
+        mLastKnownRotation = display.getRotation();
+        dispatchOnDisplayOrientationChanged(DISPLAY_ORIENTATIONS.get(mLastKnownRotation));
     }
 
     public void disable() {
-        mOrientationEventListener.disable();
+        if (mOrientationEventListener != null) {
+            mOrientationEventListener.disable();
+        } else if (mDisplayManager != null) {
+            mDisplayManager.unregisterDisplayListener(mDisplayListener);
+        }
         mDisplay = null;
+        mLastKnownRotation = -1;
+    }
+
+    private void checkRotation() {
+        if (mDisplay == null) {
+            return;
+        }
+        final int rotation = mDisplay.getRotation();
+        if (mLastKnownRotation != rotation) {
+            mLastKnownRotation = rotation;
+            dispatchOnDisplayOrientationChanged(DISPLAY_ORIENTATIONS.get(rotation));
+        }
     }
 
     public int getLastKnownDisplayOrientation() {
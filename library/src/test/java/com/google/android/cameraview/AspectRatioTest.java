@@ -19,6 +19,8 @@ package com.google.android.cameraview;
 import org.junit.Test;
 
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
@@ -45,6 +47,14 @@ public class AspectRatioTest {
         assertThat(ratio.matches(new Size(1, 2)), is(false));
     }
 
+    @Test
+    public void testMatches_tolerance() {
+        AspectRatio ratio = AspectRatio.of(16, 9);
+        assertThat(ratio.matches(new Size(1920, 1088), 0.01f), is(true));
+        assertThat(ratio.matches(new Size(1920, 1088), 0), is(false));
+        assertThat(ratio.matches(new Size(720, 480), 0.01f), is(false));
+    }
+
     @Test
     public void testGetters() {
         AspectRatio ratio = AspectRatio.of(2, 4); // Reduced to 1:2
@@ -104,4 +114,44 @@ public class AspectRatioTest {
         AspectRatio.parse("MALFORMED");
     }
 
+    @Test
+    public void testOf_beyondCacheCapacity() {
+        // Far more ratios than the cache holds are still reduced and compared correctly
+        for (int x = 1; x < 2000; x++) {
+            AspectRatio ratio = AspectRatio.of(x * 2, 2 * x + 2);
+            assertThat(ratio, is(AspectRatio.of(x, x + 1)));
+            assertThat(ratio.getY() - ratio.getX(), is(1));
+        }
+    }
+
+    @Test
+    public void testOf_concurrent() throws InterruptedException {
+        final int threads = 4;
+        final AtomicReferenceArray<AspectRatio> results = new AtomicReferenceArray<>(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    results.set(index, AspectRatio.of(1009 * 3, 1013 * 3));
+                }
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        for (int i = 0; i < threads; i++) {
+            assertThat(results.get(i), is(AspectRatio.of(1009, 1013)));
+        }
+    }
+
 }
@@ -0,0 +1,46 @@
+package com.google.android.cameraview;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CameraEventLogTest {
+
+    @Test
+    public void testEmpty() {
+        CameraEventLog log = new CameraEventLog(4);
+        assertThat(log.size(), is(0));
+        assertThat(log.toString(), is(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacity_invalid() {
+        new CameraEventLog(0);
+    }
+
+    @Test
+    public void testDump() {
+        CameraEventLog log = new CameraEventLog(4);
+        log.log(CameraEventLog.OPEN_REQUESTED, 1000000, 0, 0);
+        log.log(CameraEventLog.SURFACE_SIZE, 2500000, 1080, 1920);
+        log.log(CameraEventLog.ERROR, 3000000, 4, -1);
+        assertThat(log.size(), is(3));
+        assertThat(log.toString(), is("1.000 open requested 0 0\n"
+                + "2.500 surface size 1080 1920\n"
+                + "3.000 error 4 -1\n"));
+    }
+
+    @Test
+    public void testOverwritten() {
+        CameraEventLog log = new CameraEventLog(2);
+        log.log(CameraEventLog.OPENED, 1000000, 0, 0);
+        log.log(CameraEventLog.SESSION_REQUESTED, 2000000, 0, 0);
+        log.log(CameraEventLog.SESSION_CONFIGURED, 3000000, 0, 0);
+        assertThat(log.size(), is(2));
+        assertThat(log.toString(), is("1 earlier events dropped\n"
+                + "2.000 session requested 0 0\n"
+                + "3.000 session configured 0 0\n"));
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.google.android.cameraview;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CameraMetricsTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void testLatencies() {
+        CameraMetrics metrics = new CameraMetrics();
+        metrics.mark(CameraMetrics.EVENT_OPEN_REQUESTED, 100 * MS);
+        metrics.mark(CameraMetrics.EVENT_OPENED, 150 * MS);
+        metrics.mark(CameraMetrics.EVENT_FIRST_FRAME, 400 * MS);
+        CameraMetrics.Snapshot snapshot = metrics.getSnapshot();
+        assertThat(snapshot.getCount(CameraMetrics.METRIC_OPEN), is(1L));
+        assertThat(snapshot.getMaxUs(CameraMetrics.METRIC_OPEN), is(50000L));
+        assertThat(snapshot.getMaxUs(CameraMetrics.METRIC_FIRST_FRAME), is(300000L));
+        assertThat(snapshot.getTimestampNs(CameraMetrics.EVENT_OPENED), is(150 * MS));
+        assertThat(snapshot.getCount(CameraMetrics.METRIC_SESSION), is(0L));
+    }
+
+    @Test
+    public void testChainedEvents() {
+        CameraMetrics metrics = new CameraMetrics();
+        metrics.mark(CameraMetrics.EVENT_PICTURE_REQUESTED, 0);
+        metrics.mark(CameraMetrics.EVENT_CAPTURE_COMPLETED, 200 * MS);
+        metrics.mark(CameraMetrics.EVENT_JPEG_DELIVERED, 300 * MS);
+        CameraMetrics.Snapshot snapshot = metrics.getSnapshot();
+        assertThat(snapshot.getMaxUs(CameraMetrics.METRIC_SHUTTER), is(200000L));
+        assertThat(snapshot.getMaxUs(CameraMetrics.METRIC_JPEG), is(100000L));
+        assertThat(snapshot.getMaxUs(CameraMetrics.METRIC_PICTURE), is(300000L));
+        // Without focus locking, focus lock and precapture aren't measured
+        assertThat(snapshot.getCount(CameraMetrics.METRIC_FOCUS_LOCK), is(0L));
+    }
+
+    @Test
+    public void testEndedOncePerStart() {
+        CameraMetrics metrics = new CameraMetrics();
+        metrics.mark(CameraMetrics.EVENT_SESSION_REQUESTED, 0);
+        metrics.mark(CameraMetrics.EVENT_SESSION_CONFIGURED, 10 * MS);
+        metrics.mark(CameraMetrics.EVENT_SESSION_CONFIGURED, 20 * MS);
+        assertThat(metrics.getSnapshot().getCount(CameraMetrics.METRIC_SESSION), is(1L));
+    }
+
+    @Test
+    public void testTimedOut() {
+        CameraMetrics metrics = new CameraMetrics();
+        metrics.mark(CameraMetrics.EVENT_PICTURE_REQUESTED, 0);
+        metrics.mark(CameraMetrics.EVENT_FOCUS_LOCKED, 3000 * MS, true);
+        metrics.mark(CameraMetrics.EVENT_PRECAPTURE_DONE, 3100 * MS);
+        CameraMetrics.Snapshot snapshot = metrics.getSnapshot();
+        // Timeouts are measured like the others, and counted on their own
+        assertThat(snapshot.getCount(CameraMetrics.METRIC_FOCUS_LOCK), is(1L));
+        assertThat(snapshot.getTimeoutCount(CameraMetrics.METRIC_FOCUS_LOCK), is(1L));
+        assertThat(snapshot.getMaxUs(CameraMetrics.METRIC_FOCUS_LOCK), is(3000000L));
+        assertThat(snapshot.getCount(CameraMetrics.METRIC_PRECAPTURE), is(1L));
+        assertThat(snapshot.getTimeoutCount(CameraMetrics.METRIC_PRECAPTURE), is(0L));
+    }
+
+    @Test
+    public void testTimedOut_precapture() {
+        CameraMetrics metrics = new CameraMetrics();
+        metrics.mark(CameraMetrics.EVENT_PICTURE_REQUESTED, 0);
+        metrics.mark(CameraMetrics.EVENT_FOCUS_LOCKED, 100 * MS);
+        // The precapture sequence never started, and the picture is taken anyway
+        metrics.mark(CameraMetrics.EVENT_PRECAPTURE_DONE, 1100 * MS, true);
+        metrics.mark(CameraMetrics.EVENT_CAPTURE_COMPLETED, 1200 * MS);
+        CameraMetrics.Snapshot snapshot = metrics.getSnapshot();
+        assertThat(snapshot.getCount(CameraMetrics.METRIC_PRECAPTURE), is(1L));
+        assertThat(snapshot.getTimeoutCount(CameraMetrics.METRIC_PRECAPTURE), is(1L));
+        assertThat(snapshot.getMaxUs(CameraMetrics.METRIC_PRECAPTURE), is(1000000L));
+        assertThat(snapshot.getTimeoutCount(CameraMetrics.METRIC_FOCUS_LOCK), is(0L));
+        assertThat(snapshot.getTimeoutCount(CameraMetrics.METRIC_SHUTTER), is(0L));
+    }
+
+    @Test
+    public void testListener() {
+        CameraMetrics metrics = new CameraMetrics();
+        final List<Long> latencies = new ArrayList<>();
+        metrics.setListener(new CameraMetrics.Listener() {
+            @Override
+            public void onLatency(int metric, long latencyUs) {
+                if (metric == CameraMetrics.METRIC_RECORD_START) {
+                    latencies.add(latencyUs);
+                }
+            }
+        });
+        metrics.mark(CameraMetrics.EVENT_RECORD_START_REQUESTED, 5 * MS);
+        metrics.mark(CameraMetrics.EVENT_RECORD_STARTED, 7 * MS);
+        assertThat(latencies.size(), is(1));
+        assertThat(latencies.get(0), is(2000L));
+    }
+
+    @Test
+    public void testReset() {
+        CameraMetrics metrics = new CameraMetrics();
+        metrics.mark(CameraMetrics.EVENT_OPEN_REQUESTED, 0);
+        metrics.mark(CameraMetrics.EVENT_OPENED, MS);
+        metrics.mark(CameraMetrics.EVENT_OPEN_REQUESTED, 2 * MS);
+        metrics.reset();
+        metrics.mark(CameraMetrics.EVENT_OPENED, 3 * MS);
+        CameraMetrics.Snapshot snapshot = metrics.getSnapshot();
+        assertThat(snapshot.getCount(CameraMetrics.METRIC_OPEN), is(0L));
+        assertThat(snapshot.getTimestampNs(CameraMetrics.EVENT_OPEN_REQUESTED), is(0L));
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.google.android.cameraview;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class EncodedFramePoolTest {
+
+    @Test
+    public void testAcquire_bounded() {
+        EncodedFramePool pool = new EncodedFramePool(2);
+        EncodedFrame a = pool.acquire(16);
+        EncodedFrame b = pool.acquire(16);
+        assertThat(pool.acquire(16), is(nullValue()));
+        assertThat(pool.available(), is(0));
+        a.release();
+        assertThat(pool.available(), is(1));
+        assertThat(pool.acquire(16), is(sameInstance(a)));
+        b.release();
+    }
+
+    @Test
+    public void testSet_copiesAndGrows() {
+        EncodedFramePool pool = new EncodedFramePool(1);
+        EncodedFrame frame = pool.acquire(2);
+        ByteBuffer source = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x65});
+        frame.set(source, 42, EncodedFrame.FLAG_KEY_FRAME);
+        assertThat(frame.getSize(), is(5));
+        assertThat(frame.getData().get(4), is((byte) 0x65));
+        assertThat(frame.getPresentationTimeUs(), is(42L));
+        assertThat(frame.isKeyFrame(), is(true));
+        assertThat(frame.isCodecConfig(), is(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRelease_twice() {
+        EncodedFramePool pool = new EncodedFramePool(1);
+        EncodedFrame frame = pool.acquire(1);
+        frame.release();
+        frame.release();
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.google.android.cameraview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FocusRegionsTest {
+
+    private final float[] mTransform = new float[PreviewTransform.VALUE_COUNT];
+
+    private final float[] mPoint = new float[2];
+
+    private final int[] mCrop = new int[4];
+
+    private final int[] mRegion = new int[4];
+
+    @Before
+    public void setUp() {
+        // A preview of the size of the view, so the transform is the identity
+        PreviewTransform.compute(400, 300, 400, 300, 0, mTransform);
+    }
+
+    @Test
+    public void testViewToSensor() {
+        FocusRegions.viewToSensor(100, 75, 400, 300, mTransform, 0, false, mPoint);
+        assertThat(mPoint[0], is(0.25f));
+        assertThat(mPoint[1], is(0.25f));
+    }
+
+    @Test
+    public void testViewToSensor_rotated() {
+        PreviewTransform.compute(300, 400, 400, 300, 90, mTransform);
+        // The top left of the view is the bottom left of the sensor
+        FocusRegions.viewToSensor(0, 0, 300, 400, mTransform, 90, false, mPoint);
+        assertThat(mPoint[0], is(0f));
+        assertThat(mPoint[1], is(1f));
+        FocusRegions.viewToSensor(0, 0, 300, 400, mTransform, 270, false, mPoint);
+        assertThat(mPoint[0], is(1f));
+        assertThat(mPoint[1], is(0f));
+        FocusRegions.viewToSensor(0, 0, 300, 400, mTransform, 180, false, mPoint);
+        assertThat(mPoint[0], is(1f));
+        assertThat(mPoint[1], is(1f));
+    }
+
+    @Test
+    public void testViewToSensor_mirrored() {
+        FocusRegions.viewToSensor(100, 75, 400, 300, mTransform, 0, true, mPoint);
+        assertThat(mPoint[0], is(0.75f));
+        assertThat(mPoint[1], is(0.25f));
+    }
+
+    @Test
+    public void testViewToSensor_cropped() {
+        // A 16:9 preview in a 4:3 view is scaled horizontally and cropped on both sides
+        PreviewTransform.compute(400, 300, 1920, 1080, 0, mTransform);
+        FocusRegions.viewToSensor(200, 150, 400, 300, mTransform, 0, false, mPoint);
+        assertThat(mPoint[0], is(0.5f));
+        assertThat(mPoint[1], is(0.5f));
+        FocusRegions.viewToSensor(0, 0, 400, 300, mTransform, 0, false, mPoint);
+        assertThat(mPoint[0] > 0, is(true));
+        assertThat(mPoint[1], is(0f));
+    }
+
+    @Test
+    public void testSensorToView() {
+        FocusRegions.sensorToView(0.25f, 0.25f, 400, 300, mTransform, 0, false, mPoint);
+        assertThat(mPoint[0], is(100f));
+        assertThat(mPoint[1], is(75f));
+    }
+
+    @Test
+    public void testSensorToView_inverse() {
+        PreviewTransform.compute(300, 400, 1920, 1080, 90, mTransform);
+        for (int orientation = 0; orientation < 360; orientation += 90) {
+            FocusRegions.viewToSensor(100, 150, 300, 400, mTransform, orientation, true, mPoint);
+            FocusRegions.sensorToView(mPoint[0], mPoint[1], 300, 400, mTransform, orientation,
+                                      true, mPoint);
+            assertThat(Math.round(mPoint[0]), is(100));
+            assertThat(Math.round(mPoint[1]), is(150));
+        }
+    }
+
+    @Test
+    public void testStreamCrop() {
+        // A 16:9 stream on a 4:3 sensor is cropped at the top and bottom
+        FocusRegions.streamCrop(0, 0, 4000, 3000, 1920, 1080, mCrop);
+        assertThat(mCrop[0], is(0));
+        assertThat(mCrop[1], is(375));
+        assertThat(mCrop[2], is(4000));
+        assertThat(mCrop[3], is(2625));
+        // A 4:3 stream on a 16:9 sensor is cropped on both sides
+        FocusRegions.streamCrop(0, 0, 3840, 2160, 1440, 1080, mCrop);
+        assertThat(mCrop[0], is(480));
+        assertThat(mCrop[1], is(0));
+        assertThat(mCrop[2], is(3360));
+        assertThat(mCrop[3], is(2160));
+    }
+
+    @Test
+    public void testStreamCrop_zoomed() {
+        // Zoomed in 2x on a 4:3 sensor, with a 16:9 stream
+        FocusRegions.streamCrop(1000, 750, 3000, 2250, 1920, 1080, mCrop);
+        assertThat(mCrop[0], is(1000));
+        assertThat(mCrop[1], is(937));
+        assertThat(mCrop[2], is(3000));
+        assertThat(mCrop[3], is(2062));
+    }
+
+    @Test
+    public void testViewToRegion_aspectRatioMismatch() {
+        // A 16:9 preview filling a 16:9 view, streamed from a 4:3 sensor
+        PreviewTransform.compute(1920, 1080, 1920, 1080, 0, mTransform);
+        FocusRegions.viewToSensor(480, 270, 1920, 1080, mTransform, 0, false, mPoint);
+        FocusRegions.streamCrop(0, 0, 4000, 3000, 1920, 1080, mCrop);
+        FocusRegions.regionAround(mPoint[0], mPoint[1], mCrop, 0.1f, mRegion);
+        // A quarter into the stream, not into the whole sensor: 375 + 2250 / 4 = 937.5
+        assertThat((mRegion[0] + mRegion[2]) / 2, is(1000));
+        assertThat((mRegion[1] + mRegion[3]) / 2, is(938));
+        // The region stays within the stream's crop
+        FocusRegions.regionAround(0, 0, mCrop, 0.1f, mRegion);
+        assertThat(mRegion[0], is(0));
+        assertThat(mRegion[1], is(375));
+    }
+
+    @Test
+    public void testRegionAround() {
+        FocusRegions.regionAround(0.5f, 0.5f, new int[]{0, 0, 4000, 3000}, 0.1f, mRegion);
+        assertThat(mRegion[0], is(1850));
+        assertThat(mRegion[1], is(1350));
+        assertThat(mRegion[2], is(2150));
+        assertThat(mRegion[3], is(1650));
+    }
+
+    @Test
+    public void testRegionAround_edges() {
+        FocusRegions.regionAround(0, 1, new int[]{0, 0, 4000, 3000}, 0.1f, mRegion);
+        assertThat(mRegion[0], is(0));
+        assertThat(mRegion[1], is(2700));
+        assertThat(mRegion[2], is(300));
+        assertThat(mRegion[3], is(3000));
+    }
+
+}
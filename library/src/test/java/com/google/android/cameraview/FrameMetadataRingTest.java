@@ -0,0 +1,105 @@
+package com.google.android.cameraview;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FrameMetadataRingTest {
+
+    @Test
+    public void testCapacity() {
+        assertThat(new FrameMetadataRing(1).getCapacity(), is(1));
+        assertThat(new FrameMetadataRing(8).getCapacity(), is(8));
+        assertThat(new FrameMetadataRing(10).getCapacity(), is(16));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacity_invalid() {
+        new FrameMetadataRing(0);
+    }
+
+    @Test
+    public void testEmpty() {
+        FrameMetadataRing ring = new FrameMetadataRing(4);
+        FrameMetadata frame = new FrameMetadata();
+        assertThat(ring.getLatestIndex(), is((long) FrameMetadata.UNKNOWN));
+        assertThat(ring.read(0, frame), is(false));
+        assertThat(ring.readLatest(frame), is(false));
+    }
+
+    @Test
+    public void testPublishAndRead() {
+        FrameMetadataRing ring = new FrameMetadataRing(4);
+        ring.publish(7, 1000, 20000, 33333333, 400, 1, 2.5f, 4, 2);
+        FrameMetadata frame = new FrameMetadata();
+        assertThat(ring.readLatest(frame), is(true));
+        assertThat(frame.getIndex(), is(0L));
+        assertThat(frame.getFrameNumber(), is(7L));
+        assertThat(frame.getTimestampNs(), is(1000L));
+        assertThat(frame.getExposureTimeNs(), is(20000L));
+        assertThat(frame.getFrameDurationNs(), is(33333333L));
+        assertThat(frame.getSensitivity(), is(400));
+        assertThat(frame.getLensState(), is(1));
+        assertThat(frame.getFocusDistance(), is(2.5f));
+        assertThat(frame.getAfState(), is(4));
+        assertThat(frame.getAeState(), is(2));
+    }
+
+    @Test
+    public void testOverwritten() {
+        FrameMetadataRing ring = new FrameMetadataRing(4);
+        for (int i = 0; i < 6; i++) {
+            publish(ring, i);
+        }
+        FrameMetadata frame = new FrameMetadata();
+        assertThat(ring.getLatestIndex(), is(5L));
+        assertThat(ring.read(1, frame), is(false));
+        assertThat(ring.read(2, frame), is(true));
+        assertThat(frame.getFrameNumber(), is(2L));
+        assertThat(ring.read(6, frame), is(false));
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        final FrameMetadataRing ring = new FrameMetadataRing(2);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> torn = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FrameMetadata frame = new FrameMetadata();
+                while (!done.get()) {
+                    if (ring.readLatest(frame) && !isConsistent(frame)) {
+                        torn.set(frame.toString());
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 200000; i++) {
+            publish(ring, i);
+        }
+        done.set(true);
+        reader.join();
+        assertThat(torn.get() == null, is(true));
+    }
+
+    /** Publishes a record whose values all derive from {@code n}. */
+    private static void publish(FrameMetadataRing ring, int n) {
+        ring.publish(n, n * 10L, n * 100L, n * 1000L, n, n, n, n, n);
+    }
+
+    private static boolean isConsistent(FrameMetadata frame) {
+        long n = frame.getFrameNumber();
+        return frame.getIndex() == n && frame.getTimestampNs() == n * 10 &&
+                frame.getExposureTimeNs() == n * 100 && frame.getFrameDurationNs() == n * 1000 &&
+                frame.getSensitivity() == n && frame.getLensState() == n &&
+                frame.getFocusDistance() == (float) n && frame.getAfState() == n &&
+                frame.getAeState() == n;
+    }
+
+}
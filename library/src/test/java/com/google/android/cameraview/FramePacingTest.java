@@ -0,0 +1,96 @@
+package com.google.android.cameraview;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FramePacingTest {
+
+    private static final long FRAME_NS = 33333333;
+
+    @Test
+    public void testSteadyFrames() {
+        FramePacing pacing = new FramePacing();
+        for (int i = 1; i <= 100; i++) {
+            pacing.onFrame(i * FRAME_NS, i * FRAME_NS + 20000000);
+        }
+        assertThat(pacing.getFrameCount(), is(100L));
+        assertThat(pacing.getDroppedFrameCount(), is(0L));
+        assertWithin(pacing.getFrameIntervalPercentileUs(50), 33333);
+        assertWithin(pacing.getFrameIntervalPercentileUs(99), 33333);
+        assertWithin(pacing.getDisplayDelayPercentileUs(50), 20000);
+    }
+
+    @Test
+    public void testDroppedFrames() {
+        FramePacing pacing = new FramePacing();
+        long timestamp = 0;
+        for (int i = 0; i < 50; i++) {
+            timestamp += FRAME_NS;
+            pacing.onFrame(timestamp, 0);
+        }
+        // Two frames missing
+        timestamp += 3 * FRAME_NS;
+        pacing.onFrame(timestamp, 0);
+        // A slightly late frame isn't a drop
+        timestamp += FRAME_NS * 5 / 4;
+        pacing.onFrame(timestamp, 0);
+        assertThat(pacing.getDroppedFrameCount(), is(2L));
+        assertThat(pacing.getFrameIntervalPercentileUs(100), is(3 * FRAME_NS / 1000));
+    }
+
+    @Test
+    public void testFrameRateDecrease() {
+        FramePacing pacing = new FramePacing();
+        long timestamp = 0;
+        for (int i = 0; i < 1000; i++) {
+            timestamp += FRAME_NS;
+            pacing.onFrame(timestamp, 0);
+        }
+        // Down to 15 fps, e.g. in low light
+        for (int i = 0; i < 20; i++) {
+            timestamp += 2 * FRAME_NS;
+            pacing.onFrame(timestamp, 0);
+        }
+        long droppedDuringChange = pacing.getDroppedFrameCount();
+        assertThat(droppedDuringChange <= 8, is(true));
+        for (int i = 0; i < 100; i++) {
+            timestamp += 2 * FRAME_NS;
+            pacing.onFrame(timestamp, 0);
+        }
+        // The new frame rate isn't a drop once the recent intervals follow it
+        assertThat(pacing.getDroppedFrameCount(), is(droppedDuringChange));
+    }
+
+    @Test
+    public void testRestart() {
+        FramePacing pacing = new FramePacing();
+        for (int i = 1; i <= 20; i++) {
+            pacing.onFrame(i * FRAME_NS, 0);
+        }
+        pacing.restart();
+        // The gap between the two streams isn't an interval
+        for (int i = 1; i <= 20; i++) {
+            pacing.onFrame(100 * FRAME_NS + i * FRAME_NS, 0);
+        }
+        assertThat(pacing.getDroppedFrameCount(), is(0L));
+        assertWithin(pacing.getFrameIntervalPercentileUs(100), 33333);
+    }
+
+    @Test
+    public void testUnknownTimestamps() {
+        FramePacing pacing = new FramePacing();
+        pacing.onFrame(0, 0);
+        pacing.onFrame(0, 0);
+        assertThat(pacing.getFrameCount(), is(2L));
+        assertThat(pacing.getFrameIntervalPercentileUs(50), is(0L));
+        pacing.reset();
+        assertThat(pacing.getFrameCount(), is(0L));
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        assertThat(actual >= expected && actual <= expected * 1.125, is(true));
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.google.android.cameraview;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMean(), is(0L));
+        assertThat(histogram.getPercentile(50), is(0L));
+    }
+
+    @Test
+    public void testBuckets() {
+        assertThat(LatencyHistogram.bucketOf(0), is(0));
+        assertThat(LatencyHistogram.bucketOf(15), is(15));
+        assertThat(LatencyHistogram.bucketOf(16), is(16));
+        assertThat(LatencyHistogram.bucketOf(17), is(16));
+        assertThat(LatencyHistogram.bucketOf(Long.MAX_VALUE),
+                is(LatencyHistogram.BUCKET_COUNT - 1));
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT - 1; bucket++) {
+            long upperBound = LatencyHistogram.upperBoundOf(bucket);
+            assertThat(LatencyHistogram.bucketOf(upperBound), is(bucket));
+            assertThat(LatencyHistogram.bucketOf(upperBound + 1), is(bucket + 1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+        assertThat(histogram.getCount(), is(100L));
+        assertThat(histogram.getMax(), is(100000L));
+        assertThat(histogram.getMean(), is(50500L));
+        assertWithin(histogram.getPercentile(50), 50000);
+        assertWithin(histogram.getPercentile(95), 95000);
+        assertThat(histogram.getPercentile(100), is(100000L));
+        assertThat(histogram.getPercentile(0), is(LatencyHistogram.upperBoundOf(
+                LatencyHistogram.bucketOf(1000))));
+    }
+
+    @Test
+    public void testCopyAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.record(-5);
+        LatencyHistogram copy = new LatencyHistogram();
+        histogram.copyTo(copy);
+        histogram.reset();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(copy.getCount(), is(2L));
+        assertThat(copy.getPercentile(50), is(0L));
+        assertThat(copy.getMax(), is(42L));
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        assertThat(actual >= expected && actual <= expected * 1.125, is(true));
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.google.android.cameraview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PreviewTransformTest {
+
+    private static final float DELTA = 0.0001f;
+
+    @Test
+    public void testCompute_matchingRatio() {
+        float[] values = new float[PreviewTransform.VALUE_COUNT];
+        PreviewTransform.compute(1080, 1920, 1920, 1080, 90, values);
+        assertEquals(1f, values[0], DELTA);
+        assertEquals(1f, values[4], DELTA);
+        assertEquals(0f, values[2], DELTA);
+        assertEquals(0f, values[5], DELTA);
+        assertEquals(1f, values[8], DELTA);
+    }
+
+    @Test
+    public void testCompute_tallerPreviewIsCenteredVertically() {
+        float[] values = new float[PreviewTransform.VALUE_COUNT];
+        // A 4:3 preview on a 16:9 surface
+        PreviewTransform.compute(1280, 720, 1440, 1080, 0, values);
+        assertEquals(1f, values[0], DELTA);
+        assertEquals(1.5f, values[4], DELTA);
+        assertEquals(0f, values[2], DELTA);
+        assertEquals(-180f, values[5], DELTA);
+    }
+
+    @Test
+    public void testCompute_widerPreviewIsCenteredHorizontally() {
+        float[] values = new float[PreviewTransform.VALUE_COUNT];
+        // A 9:16 preview on a 4:3 surface, rotated by the camera
+        PreviewTransform.compute(800, 600, 1080, 1920, 270, values);
+        assertEquals(2.4f, values[0], DELTA);
+        assertEquals(1f, values[4], DELTA);
+        assertEquals(-560f, values[2], DELTA);
+        assertEquals(0f, values[5], DELTA);
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.google.android.cameraview;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class SizeDecisionCacheTest {
+
+    private static SizeDecisionCache.Key key(String cameraId, int surfaceWidth) {
+        return new SizeDecisionCache.Key(cameraId, SizeDecisionCache.OUTPUT_PREVIEW,
+                                         SizeDecisionCache.MODE_PICTURE, surfaceWidth, 1080, 90,
+                                         0, 0, 30);
+    }
+
+    private static SizeDecisionCache.Key highSpeedKey(int videoFrameRate) {
+        return new SizeDecisionCache.Key("0", SizeDecisionCache.OUTPUT_VIDEO,
+                                         SizeDecisionCache.MODE_HIGH_SPEED_VIDEO, 1920, 1080, 90,
+                                         0, 0, videoFrameRate);
+    }
+
+    @Test
+    public void testGet() {
+        SizeDecisionCache cache = new SizeDecisionCache(4);
+        assertThat(cache.get(key("0", 1920)), is(nullValue()));
+        cache.put(key("0", 1920), new Size(1920, 1080));
+        assertThat(cache.get(key("0", 1920)), is(new Size(1920, 1080)));
+        assertThat(cache.get(key("1", 1920)), is(nullValue()));
+        assertThat(cache.getHitCount(), is(1));
+        assertThat(cache.getMissCount(), is(2));
+    }
+
+    @Test
+    public void testGet_videoFrameRate() {
+        SizeDecisionCache cache = new SizeDecisionCache(4);
+        cache.put(highSpeedKey(120), new Size(1920, 1080));
+        assertThat(cache.get(highSpeedKey(120)), is(new Size(1920, 1080)));
+        // A size supporting 120 fps may not support 240 fps
+        assertThat(cache.get(highSpeedKey(240)), is(nullValue()));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        SizeDecisionCache cache = new SizeDecisionCache(2);
+        cache.put(key("0", 1), new Size(1, 1));
+        cache.put(key("0", 2), new Size(2, 2));
+        // Touching the first entry makes the second the eldest
+        cache.get(key("0", 1));
+        cache.put(key("0", 3), new Size(3, 3));
+        assertThat(cache.size(), is(2));
+        assertThat(cache.get(key("0", 1)), is(new Size(1, 1)));
+        assertThat(cache.get(key("0", 2)), is(nullValue()));
+    }
+
+    @Test
+    public void testClear() {
+        SizeDecisionCache cache = new SizeDecisionCache(2);
+        cache.put(key("0", 1), new Size(1, 1));
+        cache.clear();
+        assertThat(cache.get(key("0", 1)), is(nullValue()));
+    }
+
+}
@@ -18,6 +18,9 @@ package com.google.android.cameraview;
 
 import org.junit.Test;
 
+import java.util.Iterator;
+import java.util.List;
+
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
@@ -52,4 +55,183 @@ public class SizeMapTest {
         assertThat(map.ratios().size(), is(0));
     }
 
+    @Test
+    public void testPack() {
+        long packed = SizeMap.pack(4032, 3024);
+        assertThat(SizeMap.unpackWidth(packed), is(4032));
+        assertThat(SizeMap.unpackHeight(packed), is(3024));
+        assertThat(SizeMap.unpack(packed), is(new Size(4032, 3024)));
+    }
+
+    @Test
+    public void testSizes_sortedByArea() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(1920, 1080));
+        map.add(new Size(640, 360));
+        map.add(new Size(1280, 720));
+        Iterator<Size> sizes = map.sizes(AspectRatio.of(16, 9)).iterator();
+        assertThat(sizes.next(), is(new Size(640, 360)));
+        assertThat(sizes.next(), is(new Size(1280, 720)));
+        assertThat(sizes.next(), is(new Size(1920, 1080)));
+        assertThat(sizes.hasNext(), is(false));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSizes_unmodifiable() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(640, 480));
+        map.sizes(AspectRatio.of(4, 3)).add(new Size(320, 240));
+    }
+
+    @Test
+    public void testRemove() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(640, 480));
+        map.add(new Size(1280, 720));
+        map.remove(AspectRatio.of(4, 3));
+        assertThat(map.ratios().size(), is(1));
+        assertThat(map.sizes(AspectRatio.of(4, 3)).isEmpty(), is(true));
+        assertThat(map.largest(), is(new Size(1280, 720)));
+    }
+
+    @Test
+    public void testSmallestAtLeast() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(640, 360));
+        map.add(new Size(1280, 720));
+        map.add(new Size(1920, 1080));
+        AspectRatio ratio = AspectRatio.of(16, 9);
+        assertThat(map.smallestAtLeast(ratio, 1280, 720), is(SizeMap.pack(1280, 720)));
+        assertThat(map.smallestAtLeast(ratio, 1281, 700), is(SizeMap.pack(1920, 1080)));
+        assertThat(map.smallestAtLeast(ratio, 3840, 2160), is(SizeMap.NONE));
+        assertThat(map.smallestAtLeast(AspectRatio.of(4, 3), 1, 1), is(SizeMap.NONE));
+    }
+
+    @Test
+    public void testLargestAtMost() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(640, 360));
+        map.add(new Size(1280, 720));
+        map.add(new Size(1920, 1080));
+        AspectRatio ratio = AspectRatio.of(16, 9);
+        assertThat(map.largestAtMost(ratio, 1920, 1080), is(SizeMap.pack(1920, 1080)));
+        assertThat(map.largestAtMost(ratio, 1919, 1080), is(SizeMap.pack(1280, 720)));
+        assertThat(map.largestAtMost(ratio, 320, 180), is(SizeMap.NONE));
+    }
+
+    @Test
+    public void testLargest() {
+        SizeMap map = new SizeMap();
+        assertThat(map.largestOverall(), is(SizeMap.NONE));
+        map.add(new Size(1280, 720));
+        map.add(new Size(1440, 1080));
+        map.add(new Size(640, 480));
+        assertThat(map.largestOverall(), is(SizeMap.pack(1440, 1080)));
+        assertThat(map.largestIn(AspectRatio.of(4, 3)), is(SizeMap.pack(1440, 1080)));
+        assertThat(map.largestIn(AspectRatio.of(16, 9)), is(SizeMap.pack(1280, 720)));
+        assertThat(map.largest(), is(new Size(1440, 1080)));
+    }
+
+    @Test
+    public void testRatiosSortedByClosest() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(640, 480));
+        map.add(new Size(1280, 720));
+        map.add(new Size(720, 720));
+        map.add(new Size(2560, 1080));
+        List<AspectRatio> ratios = map.ratiosSortedByClosest(AspectRatio.of(16, 10));
+        assertThat(ratios.size(), is(4));
+        assertThat(ratios.get(0), is(AspectRatio.of(16, 9)));
+        assertThat(ratios.get(1), is(AspectRatio.of(4, 3)));
+        assertThat(ratios.get(2), is(AspectRatio.of(1, 1)));
+        assertThat(ratios.get(3), is(AspectRatio.of(64, 27)));
+    }
+
+    @Test
+    public void testRatiosSortedByClosest_tolerance() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(640, 480));
+        map.add(new Size(1280, 720));
+        map.add(new Size(1280, 768));
+        List<AspectRatio> ratios = map.ratiosSortedByClosest(AspectRatio.of(16, 9), 0.1f);
+        assertThat(ratios.size(), is(2));
+        assertThat(ratios.get(0), is(AspectRatio.of(16, 9)));
+        assertThat(ratios.get(1), is(AspectRatio.of(5, 3)));
+    }
+
+    @Test
+    public void testSmallestAtLeastClosest() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(640, 360));
+        map.add(new Size(1440, 1080));
+        map.add(new Size(4000, 1000));
+        AspectRatio ratio = AspectRatio.of(16, 9);
+        assertThat(map.smallestAtLeastClosest(ratio, 640, 360), is(SizeMap.pack(640, 360)));
+        // 16:9 has nothing large enough, 4:3 is closer than 4:1
+        assertThat(map.smallestAtLeastClosest(ratio, 1280, 720), is(SizeMap.pack(1440, 1080)));
+        assertThat(map.smallestAtLeastClosest(ratio, 1280, 720, 0.1f), is(SizeMap.NONE));
+        assertThat(map.smallestAtLeastClosest(ratio, 1500, 1000), is(SizeMap.pack(4000, 1000)));
+    }
+
+    @Test
+    public void testAdd_tolerance() {
+        SizeMap map = new SizeMap(0.01f);
+        map.add(new Size(1920, 1088));
+        map.add(new Size(1280, 720));
+        map.add(new Size(720, 480));
+        assertThat(map.ratios().size(), is(2));
+        // Keyed by the simplest ratio
+        assertThat(map.ratios().contains(AspectRatio.of(16, 9)), is(true));
+        assertThat(map.sizes(AspectRatio.of(16, 9)).size(), is(2));
+        assertThat(map.containsRatio(AspectRatio.of(30, 17)), is(true));
+        assertThat(map.largestIn(AspectRatio.of(30, 17)), is(SizeMap.pack(1920, 1088)));
+        assertThat(map.smallestAtLeast(AspectRatio.of(16, 9), 1300, 730),
+                is(SizeMap.pack(1920, 1088)));
+    }
+
+    @Test
+    public void testSizes_sameArea() {
+        SizeMap map = new SizeMap(0.15f);
+        map.add(new Size(1600, 900));
+        map.add(new Size(1500, 960));
+        assertThat(map.ratios().size(), is(1));
+        Iterator<Size> sizes = map.sizes(AspectRatio.of(16, 9)).iterator();
+        // Ordered by area, then width
+        assertThat(sizes.next(), is(new Size(1500, 960)));
+        assertThat(sizes.next(), is(new Size(1600, 900)));
+        assertThat(sizes.hasNext(), is(false));
+    }
+
+    @Test
+    public void testAdd_tolerance_order() {
+        // 27:25 is within 10% of both 1:1 and 7:6, which aren't within 10% of each other
+        Size[] sizes = {new Size(1000, 1000), new Size(1080, 1000), new Size(1050, 900)};
+        SizeMap forward = new SizeMap(0.1f);
+        SizeMap backward = new SizeMap(0.1f);
+        for (int i = 0; i < sizes.length; i++) {
+            forward.add(sizes[i]);
+            backward.add(sizes[sizes.length - 1 - i]);
+        }
+        for (SizeMap map : new SizeMap[]{forward, backward}) {
+            assertThat(map.ratios().size(), is(2));
+            // 27:25 joins the simplest ratio, 1:1, which is also the closest
+            assertThat(map.sizes(AspectRatio.of(1, 1)).size(), is(2));
+            assertThat(map.sizes(AspectRatio.of(7, 6)).size(), is(1));
+        }
+        assertThat(forward.add(new Size(1080, 1000)), is(false));
+    }
+
+    @Test
+    public void testSetTolerance() {
+        SizeMap map = new SizeMap();
+        map.add(new Size(1920, 1088));
+        map.add(new Size(1280, 720));
+        assertThat(map.ratios().size(), is(2));
+        map.setTolerance(0.01f);
+        assertThat(map.ratios().size(), is(1));
+        map.setTolerance(0);
+        assertThat(map.ratios().size(), is(2));
+        assertThat(map.containsRatio(AspectRatio.of(3, 2)), is(false));
+    }
+
 }
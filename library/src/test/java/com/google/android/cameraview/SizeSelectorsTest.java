@@ -0,0 +1,98 @@
+package com.google.android.cameraview;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class SizeSelectorsTest {
+
+    private static final AspectRatio RATIO_16_9 = AspectRatio.of(16, 9);
+
+    private static final AspectRatio RATIO_4_3 = AspectRatio.of(4, 3);
+
+    private SizeMap mSizes;
+
+    @Before
+    public void setUp() {
+        mSizes = new SizeMap();
+        mSizes.add(new Size(640, 360));
+        mSizes.add(new Size(1280, 720));
+        mSizes.add(new Size(1920, 1080));
+        mSizes.add(new Size(640, 480));
+        mSizes.add(new Size(2048, 1536));
+    }
+
+    @Test
+    public void testSmallestCover() {
+        SizeSelector selector = SizeSelectors.smallestCover();
+        assertThat(selector.select(mSizes, RATIO_16_9, 1000, 500, 0), is(new Size(1280, 720)));
+        // No 16:9 size is large enough, the closest ratio is tried next
+        assertThat(selector.select(mSizes, RATIO_16_9, 2000, 1100, 0), is(new Size(2048, 1536)));
+        assertThat(selector.select(mSizes, RATIO_16_9, 4000, 3000, 0), is(nullValue()));
+    }
+
+    @Test
+    public void testSmallestCover_rotated() {
+        SizeSelector selector = SizeSelectors.smallestCover();
+        assertThat(selector.select(mSizes, RATIO_16_9.inverse(), 500, 1000, 90),
+                is(new Size(1280, 720)));
+        assertThat(selector.select(mSizes, RATIO_16_9.inverse(), 500, 1000, 180),
+                is(new Size(2048, 1536)));
+    }
+
+    @Test
+    public void testSmallestCoverOfRatio() {
+        SizeSelector selector = SizeSelectors.smallestCoverOfRatio();
+        assertThat(selector.select(mSizes, RATIO_16_9, 0, 0, 0), is(new Size(640, 360)));
+        assertThat(selector.select(mSizes, RATIO_16_9, 1280, 720, 0), is(new Size(1280, 720)));
+        // Falls back to the largest size of the ratio
+        assertThat(selector.select(mSizes, RATIO_16_9, 3840, 2160, 0), is(new Size(1920, 1080)));
+        assertThat(selector.select(mSizes, AspectRatio.of(1, 1), 0, 0, 0), is(nullValue()));
+    }
+
+    @Test
+    public void testLargestOfRatio() {
+        SizeSelector selector = SizeSelectors.largestOfRatio();
+        assertThat(selector.select(mSizes, RATIO_4_3, 0, 0, 0), is(new Size(2048, 1536)));
+        assertThat(selector.select(mSizes, RATIO_4_3.inverse(), 0, 0, 270),
+                is(new Size(2048, 1536)));
+    }
+
+    @Test
+    public void testClosestArea() {
+        SizeSelector selector = SizeSelectors.closestArea();
+        assertThat(selector.select(mSizes, RATIO_16_9, 1100, 600, 0), is(new Size(1280, 720)));
+        assertThat(selector.select(mSizes, AspectRatio.of(4, 3), 100, 100, 0),
+                is(new Size(640, 480)));
+    }
+
+    @Test
+    public void testMaxMegapixels() {
+        assertThat(SizeSelectors.maxMegapixels(1f).select(mSizes, RATIO_16_9, 0, 0, 0),
+                is(new Size(1280, 720)));
+        // Nothing small enough, the smallest size is used
+        assertThat(SizeSelectors.maxMegapixels(0.1f).select(mSizes, RATIO_16_9, 0, 0, 0),
+                is(new Size(640, 360)));
+    }
+
+    @Test
+    public void testMaxLongEdge() {
+        assertThat(SizeSelectors.maxLongEdge(2000).select(mSizes, RATIO_16_9, 0, 0, 0),
+                is(new Size(1920, 1080)));
+        assertThat(SizeSelectors.maxLongEdge(2000).select(mSizes, RATIO_4_3, 0, 0, 0),
+                is(new Size(640, 480)));
+    }
+
+    @Test
+    public void testExact() {
+        assertThat(SizeSelectors.exact(1280, 720).select(mSizes, RATIO_4_3, 0, 0, 0),
+                is(new Size(1280, 720)));
+        // Not supported, the smallest cover is used
+        assertThat(SizeSelectors.exact(1000, 563).select(mSizes, RATIO_4_3, 0, 0, 0),
+                is(new Size(1280, 720)));
+    }
+
+}
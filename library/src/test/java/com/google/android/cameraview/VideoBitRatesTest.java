@@ -0,0 +1,39 @@
+package com.google.android.cameraview;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class VideoBitRatesTest {
+
+    @Test
+    public void testFromBitsPerPixel() {
+        assertThat(VideoBitRates.fromBitsPerPixel(1280, 720, 30, 0.1f), is(2764800));
+    }
+
+    @Test
+    public void testFromBytesPerMinute() {
+        // 60 MB per minute is 8 Mbps
+        assertThat(VideoBitRates.fromBytesPerMinute(60000000L), is(8000000));
+    }
+
+    @Test
+    public void testScale() {
+        // Half the pixels and twice the frame rate keep the bit rate
+        assertThat(VideoBitRates.scale(10000000, 1920, 1080, 30, 1920, 540, 60), is(10000000));
+        assertThat(VideoBitRates.scale(12000000, 1920, 1080, 30, 960, 540, 30), is(3000000));
+    }
+
+    @Test
+    public void testScale_unknownReference() {
+        assertThat(VideoBitRates.scale(5000000, 0, 0, 0, 1280, 720, 30), is(5000000));
+    }
+
+    @Test
+    public void testClamp() {
+        assertThat(VideoBitRates.fromBitsPerPixel(8000, 6000, 240, 1f), is(Integer.MAX_VALUE));
+        assertThat(VideoBitRates.fromBytesPerMinute(0), is(1));
+    }
+
+}